@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Handler trees used by {@link CommandDispatchBenchmark}.
+ * 
+ * @author zerothangel
+ */
+public class BenchmarkHandler {
+
+    private static final Level1 level1 = new Level1();
+
+    private static final Level2 level2 = new Level2();
+
+    private static final Level3 level3 = new Level3();
+
+    // Flat
+    @Command("echo")
+    public void echo(CommandSender sender, @Option("message") String message, String[] rest) {
+    }
+
+    // Many flags
+    @Command("flags")
+    public void flags(CommandSender sender,
+            @Option({"-a", "--alpha"}) boolean alpha,
+            @Option({"-b", "--bravo"}) boolean bravo,
+            @Option({"-c", "--charlie"}) String charlie,
+            @Option({"-d", "--delta"}) int delta,
+            @Option({"-e", "--echo"}) String echo,
+            @Option({"-f", "--foxtrot"}) Integer foxtrot,
+            @Option({"-g", "--golf"}) boolean golf,
+            @Option(value="name", completer="constant:alpha bravo charlie delta echo") String name) {
+    }
+
+    // Deeply nested sub-commands
+    @Command(value="nest", subHandler=Level1.class)
+    public Level1 nest() {
+        return level1;
+    }
+
+    public static class Level1 {
+
+        @Command(value="one", subHandler=Level2.class)
+        public Level2 one() {
+            return level2;
+        }
+
+    }
+
+    public static class Level2 {
+
+        @Command(value="two", subHandler=Level3.class)
+        public Level3 two() {
+            return level3;
+        }
+
+    }
+
+    public static class Level3 {
+
+        @Command("three")
+        public void three(CommandSender sender, @Option(value="name", completer="constant:alpha bravo charlie delta echo") String name) {
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of ToHCommandExecutor command dispatch and tab completion. Run
+ * with <code>mvn -Pbenchmark test-compile exec:exec</code>, which also
+ * reports allocation rates (<code>-prof gc</code>).
+ * 
+ * @author zerothangel
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandDispatchBenchmark {
+
+    private final CommandSender sender = new BenchmarkSender();
+
+    private final org.bukkit.command.Command echo = new BenchmarkCommand("echo");
+
+    private final org.bukkit.command.Command flags = new BenchmarkCommand("flags");
+
+    private final org.bukkit.command.Command nest = new BenchmarkCommand("nest");
+
+    private final String[] echoArgs = { "hello", "world", "foo", "bar" };
+
+    private final String[] flagsArgs = { "-ab", "--charlie", "c", "-d", "42", "--echo", "e", "-g", "alpha" };
+
+    private final String[] nestArgs = { "one", "two", "three", "alpha" };
+
+    private final String[] quotedArgs = { "\"hello", "world\"", "foo\\\"bar" };
+
+    private final String[] flagsCompleteArgs = { "-ab", "--charlie", "c", "" };
+
+    private final String[] nestCompleteArgs = { "one", "two", "three", "a" };
+
+    // -ab --charlie "c  d" --echo e\ f <name>
+    private final String[] quotedCompleteArgs = { "-ab", "--charlie", "\"c", "", "d\"", "--echo", "e\\", "f", "" };
+
+    private ToHCommandExecutor<MyPlugin> executor;
+
+    private ToHCommandExecutor<MyPlugin> quoteAwareExecutor;
+
+    @Setup
+    public void setUp() {
+        executor = new ToHCommandExecutor<>(new MyPlugin(), new BenchmarkHandler())
+                .setCompiledInvocation(true);
+        quoteAwareExecutor = new ToHCommandExecutor<>(new MyPlugin(), new BenchmarkHandler())
+                .setCompiledInvocation(true)
+                .setQuoteAware(true);
+    }
+
+    @Benchmark
+    public boolean flatCommand() {
+        return executor.onCommand(sender, echo, "echo", echoArgs);
+    }
+
+    @Benchmark
+    public boolean manyFlagsCommand() {
+        return executor.onCommand(sender, flags, "flags", flagsArgs);
+    }
+
+    @Benchmark
+    public boolean nestedCommand() {
+        return executor.onCommand(sender, nest, "nest", nestArgs);
+    }
+
+    @Benchmark
+    public boolean quoteAwareCommand() {
+        return quoteAwareExecutor.onCommand(sender, echo, "echo", quotedArgs);
+    }
+
+    @Benchmark
+    public List<String> manyFlagsTabComplete() {
+        return executor.onTabComplete(sender, flags, "flags", flagsCompleteArgs);
+    }
+
+    @Benchmark
+    public List<String> nestedTabComplete() {
+        return executor.onTabComplete(sender, nest, "nest", nestCompleteArgs);
+    }
+
+    @Benchmark
+    public List<String> quoteAwarePlainTabComplete() {
+        return quoteAwareExecutor.onTabComplete(sender, nest, "nest", nestCompleteArgs);
+    }
+
+    @Benchmark
+    public List<String> quoteAwareTabComplete() {
+        return quoteAwareExecutor.onTabComplete(sender, flags, "flags", quotedCompleteArgs);
+    }
+
+    private static class BenchmarkCommand extends org.bukkit.command.Command {
+
+        private BenchmarkCommand(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean execute(CommandSender sender, String commandLabel, String[] args) {
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+
+/**
+ * TypeCompleter that runs another (possibly slow) TypeCompleter on an
+ * executor. The calling thread waits at most the given deadline for the
+ * result. If the deadline passes, the sender's last completed result
+ * (filtered by the current partial string) is returned instead, provided it
+ * was computed for the same type and argument and for a prefix of the
+ * current partial string. Otherwise, nothing is returned.
+ * 
+ * <p>Only the newest query of each sender is computed: a pending query is
+ * cancelled when the same sender asks for something else, and re-used when
+ * the same sender asks for the same thing again.
+ * 
+ * <p>The wrapped TypeCompleter is called from the executor's threads, so it
+ * must not use any Bukkit API that is only safe to call from the main thread.
+ * 
+ * @author zerothangel
+ */
+public class AsyncTypeCompleter implements TypeCompleter {
+
+    private final TypeCompleter typeCompleter;
+
+    private final ExecutorService executorService;
+
+    private final long timeout;
+
+    // Per-sender state. Weak keys so departed senders don't linger.
+    private final Map<CommandSender, SenderState> senderStates = new WeakHashMap<>();
+
+    /**
+     * Create an AsyncTypeCompleter.
+     * 
+     * @param typeCompleter the TypeCompleter to run asynchronously
+     * @param executorService the ExecutorService to run it on
+     * @param timeout how long to wait for a result
+     * @param unit unit of timeout
+     */
+    public AsyncTypeCompleter(TypeCompleter typeCompleter, ExecutorService executorService, long timeout, TimeUnit unit) {
+        if (typeCompleter == null)
+            throw new IllegalArgumentException("typeCompleter cannot be null");
+        if (executorService == null)
+            throw new IllegalArgumentException("executorService cannot be null");
+        if (timeout < 0L)
+            throw new IllegalArgumentException("timeout must be non-negative");
+        if (unit == null)
+            throw new IllegalArgumentException("unit cannot be null");
+
+        this.typeCompleter = typeCompleter;
+        this.executorService = executorService;
+        this.timeout = unit.toMillis(timeout);
+    }
+
+    @Override
+    public List<String> complete(final Class<?> clazz, final String arg, final CommandSender sender, final String partial) {
+        final SenderState state = getSenderState(sender);
+
+        Future<List<String>> future;
+        synchronized (state) {
+            if (state.pending != null && state.matches(clazz, arg, partial)) {
+                // Same query still running, wait on it
+                future = state.pending;
+            }
+            else {
+                // Newer query supersedes any pending one
+                if (state.pending != null)
+                    state.pending.cancel(true);
+
+                future = executorService.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        List<String> result = typeCompleter.complete(clazz, arg, sender, partial);
+                        synchronized (state) {
+                            state.lastClazz = clazz;
+                            state.lastArg = arg;
+                            state.lastPartial = partial;
+                            state.lastResult = result;
+                        }
+                        return result;
+                    }
+                });
+                state.pending = future;
+                state.clazz = clazz;
+                state.arg = arg;
+                state.partial = partial;
+            }
+        }
+
+        try {
+            List<String> result = future.get(timeout, TimeUnit.MILLISECONDS);
+            state.clearPending(future);
+            return result;
+        }
+        catch (TimeoutException | CancellationException e) {
+            // Fall through
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            state.clearPending(future);
+            throw Throwables.propagate(e.getCause());
+        }
+
+        // Fall back to last result. It may be out of date, or truncated
+        // itself, so the filtered result may miss values.
+        List<String> result = new TruncatedCompletions();
+        synchronized (state) {
+            if (state.lastResultMatches(clazz, arg, partial))
+                StringUtil.copyPartialMatches(partial, state.lastResult, result);
+        }
+        return result;
+    }
+
+    private SenderState getSenderState(CommandSender sender) {
+        synchronized (senderStates) {
+            SenderState state = senderStates.get(sender);
+            if (state == null) {
+                state = new SenderState();
+                senderStates.put(sender, state);
+            }
+            return state;
+        }
+    }
+
+    // Pending query and last result of a single sender. Guarded by itself.
+    private static class SenderState {
+
+        private Future<List<String>> pending;
+
+        private Class<?> clazz;
+
+        private String arg;
+
+        private String partial;
+
+        // Query that lastResult was computed for
+        private Class<?> lastClazz;
+
+        private String lastArg;
+
+        private String lastPartial;
+
+        private List<String> lastResult = Collections.emptyList();
+
+        private boolean matches(Class<?> clazz, String arg, String partial) {
+            return this.clazz == clazz && Objects.equal(this.arg, arg) && Objects.equal(this.partial, partial);
+        }
+
+        // Tests whether lastResult was computed for the same context and a
+        // prefix of partial (and so includes all matches of partial)
+        private boolean lastResultMatches(Class<?> clazz, String arg, String partial) {
+            return lastClazz == clazz && Objects.equal(lastArg, arg) &&
+                    lastPartial != null && partial.toLowerCase().startsWith(lastPartial.toLowerCase());
+        }
+
+        private synchronized void clearPending(Future<List<String>> future) {
+            if (pending == future)
+                pending = null;
+        }
+
+    }
+
+}
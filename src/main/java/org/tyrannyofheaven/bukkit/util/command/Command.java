@@ -60,4 +60,12 @@ public @interface Command {
      */
     public String completer() default "";
 
+    /**
+     * Class of the handler returned by a sub-command method. If given, tab
+     * completion descends into the sub-command using the class's metadata
+     * alone rather than by invoking the method. The method itself is still
+     * invoked when the command is executed.
+     */
+    public Class<?> subHandler() default void.class;
+
 }
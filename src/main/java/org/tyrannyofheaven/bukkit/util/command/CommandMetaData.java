@@ -17,11 +17,16 @@ package org.tyrannyofheaven.bukkit.util.command;
 
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Metadata for a command.
@@ -30,10 +35,16 @@ import java.util.List;
  */
 final class CommandMetaData {
 
-    private final Object handler;
+    private static final int SHORT_FLAG_TABLE_SIZE = 128;
+
+    private final String name;
+
+    private final Class<?> handlerClass;
 
     private final Method method;
 
+    private final MethodHandle methodHandle;
+
     private final List<MethodParameter> parameters;
 
     private final String[] permissions;
@@ -50,22 +61,36 @@ final class CommandMetaData {
 
     private final String completer;
 
+    private final Class<?> subHandlerClass;
+
     private final List<OptionMetaData> flagOptions;
     
     private final List<OptionMetaData> positionalArguments;
 
+    // Single-character flags (e.g. "-f") indexed by character
+    private final OptionMetaData[] shortFlags = new OptionMetaData[SHORT_FLAG_TABLE_SIZE];
+
+    // All other flags (e.g. "--flag") by full name
+    private final Map<String, OptionMetaData> longFlags = new HashMap<>();
+
+    private final int optionCount;
+
     /**
      * Create a CommandMetaData with the given arguments.
      * 
-     * @param handler the handler object
-     * @param method the associated method in the handler object
+     * @param name the primary (unaliased) command name
+     * @param handlerClass the handler class
+     * @param method the associated method in the handler class
      * @param options method parameters
      * @param permissions required permissions, if any
      * @param requireAll true if all permissions are required
+     * @param subHandlerClass declared sub-command handler class, or null
      */
-    public CommandMetaData(Object handler, Method method, List<MethodParameter> options, String[] permissions, boolean requireAll, boolean checkNegations, String description, boolean hasRest, String rest, String completer) {
-        if (handler == null)
-            throw new IllegalArgumentException("handler cannot be null");
+    public CommandMetaData(String name, Class<?> handlerClass, Method method, List<MethodParameter> options, String[] permissions, boolean requireAll, boolean checkNegations, String description, boolean hasRest, String rest, String completer, Class<?> subHandlerClass) {
+        if (!hasText(name))
+            throw new IllegalArgumentException("name must have a value");
+        if (handlerClass == null)
+            throw new IllegalArgumentException("handlerClass cannot be null");
         if (method == null)
             throw new IllegalArgumentException("method cannot be null");
         
@@ -79,9 +104,13 @@ final class CommandMetaData {
             rest = null;
         if (!hasText(completer))
             completer = null;
+        if (subHandlerClass == void.class)
+            subHandlerClass = null;
 
-        this.handler = handler;
+        this.name = name;
+        this.handlerClass = handlerClass;
         this.method = method;
+        this.methodHandle = bindMethodHandle(method);
         this.permissions = Arrays.copyOf(permissions, permissions.length);
         this.requireAll = requireAll;
         this.checkNegations = checkNegations;
@@ -89,6 +118,7 @@ final class CommandMetaData {
         this.hasRest = hasRest;
         this.rest = rest;
         this.completer = completer;
+        this.subHandlerClass = subHandlerClass;
 
         this.parameters = Collections.unmodifiableList(new ArrayList<>(options));
         
@@ -108,6 +138,41 @@ final class CommandMetaData {
         
         this.flagOptions = Collections.unmodifiableList(flagOptions);
         this.positionalArguments = Collections.unmodifiableList(positionalArguments);
+
+        int maxSlot = -1;
+        for (OptionMetaData omd : flagOptions)
+            maxSlot = Math.max(maxSlot, omd.getSlot());
+        for (OptionMetaData omd : positionalArguments)
+            maxSlot = Math.max(maxSlot, omd.getSlot());
+        this.optionCount = maxSlot + 1;
+
+        // Index flags. First option with a given name wins.
+        for (OptionMetaData omd : this.flagOptions) {
+            for (String flag : omd.getNames()) {
+                char c;
+                if (flag.length() == 2 && (c = flag.charAt(1)) != '-' && c < SHORT_FLAG_TABLE_SIZE) {
+                    if (shortFlags[c] == null)
+                        shortFlags[c] = omd;
+                }
+                else if (!longFlags.containsKey(flag)) {
+                    longFlags.put(flag, omd);
+                }
+            }
+        }
+    }
+
+    // Bind the handler method and adapt it to take the handler object and a
+    // single Object[] (as returned by buildMethodArgs). Returns null if the
+    // method could not be bound, in which case reflection should be used.
+    private static MethodHandle bindMethodHandle(Method method) {
+        try {
+            return MethodHandles.lookup().unreflect(method)
+                    .asSpreader(Object[].class, method.getParameterTypes().length)
+                    .asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+        }
+        catch (IllegalAccessException | RuntimeException e) {
+            return null;
+        }
     }
 
     /**
@@ -138,12 +203,52 @@ final class CommandMetaData {
     }
 
     /**
-     * Returns the handler object.
+     * Return the number of value slots needed to parse this command.
+     * 
+     * @return the number of option slots
+     */
+    public int getOptionCount() {
+        return optionCount;
+    }
+
+    /**
+     * Return metadata for a single-character flag.
      * 
-     * @return the handler object
+     * @param c the flag character (without the leading dash)
+     * @return the OptionMetaData for the flag, or null if unknown
      */
-    public Object getHandler() {
-        return handler;
+    public OptionMetaData getShortFlag(char c) {
+        if (c < SHORT_FLAG_TABLE_SIZE)
+            return shortFlags[c];
+        return longFlags.get("-" + c);
+    }
+
+    /**
+     * Return metadata for a flag by its full name, including dashes.
+     * 
+     * @param flag the flag name, e.g. "--flag"
+     * @return the OptionMetaData for the flag, or null if unknown
+     */
+    public OptionMetaData getLongFlag(String flag) {
+        return longFlags.get(flag);
+    }
+
+    /**
+     * Returns the primary (unaliased) command name.
+     * 
+     * @return the command name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the handler class.
+     * 
+     * @return the handler class
+     */
+    public Class<?> getHandlerClass() {
+        return handlerClass;
     }
 
     /**
@@ -155,6 +260,17 @@ final class CommandMetaData {
         return method;
     }
 
+    /**
+     * Returns the pre-bound handle for the handler method. The handle takes
+     * the handler object and a single Object[] of method arguments and
+     * returns the method's result (or null for void methods).
+     * 
+     * @return the bound MethodHandle, or null if binding failed
+     */
+    public MethodHandle getMethodHandle() {
+        return methodHandle;
+    }
+
     /**
      * Returns the permissions, if any.
      * 
@@ -219,4 +335,13 @@ final class CommandMetaData {
         return completer;
     }
 
+    /**
+     * Returns the declared class of the sub-command handler, if any.
+     * 
+     * @return the sub-command handler class, or null if not declared
+     */
+    public Class<?> getSubHandlerClass() {
+        return subHandlerClass;
+    }
+
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects execution statistics of commands by command path. See
+ * {@link ToHCommandExecutor#setCommandMetrics(CommandMetrics)}.
+ * 
+ * @author zerothangel
+ */
+public final class CommandMetrics {
+
+    private final ConcurrentMap<String, CommandStats> stats = new ConcurrentHashMap<>();
+
+    // How a command execution ended
+    static enum Outcome {
+        SUCCESS, PARSE_FAILURE, PERMISSION_DENIED, EXCEPTION;
+    }
+
+    void record(String path, long nanos, Outcome outcome) {
+        CommandStats cs = stats.get(path);
+        if (cs == null) {
+            cs = new CommandStats(path);
+            CommandStats existing = stats.putIfAbsent(path, cs);
+            if (existing != null)
+                cs = existing;
+        }
+        cs.record(nanos, outcome);
+    }
+
+    /**
+     * Returns statistics for a command path.
+     * 
+     * @param path the command path, sub-commands separated by spaces
+     * @return the CommandStats, or null if the command hasn't been executed
+     */
+    public CommandStats getStats(String path) {
+        return stats.get(path);
+    }
+
+    /**
+     * Returns statistics for all executed command paths.
+     * 
+     * @return list of CommandStats
+     */
+    public List<CommandStats> getAllStats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    /**
+     * Returns statistics for the command paths with the highest total
+     * execution time.
+     * 
+     * @param n maximum number of command paths to return
+     * @return list of CommandStats, highest total time first
+     */
+    public List<CommandStats> getTopByTotalTime(int n) {
+        // Sort on a snapshot of the totals since they may change while sorting
+        List<TotalTime> totals = new ArrayList<>(stats.size());
+        for (CommandStats cs : stats.values()) {
+            totals.add(new TotalTime(cs));
+        }
+        Collections.sort(totals);
+
+        List<CommandStats> result = new ArrayList<>(Math.min(n, totals.size()));
+        for (int i = 0; i < n && i < totals.size(); i++) {
+            result.add(totals.get(i).stats);
+        }
+        return result;
+    }
+
+    /**
+     * Discards all statistics.
+     */
+    public void reset() {
+        for (CommandStats cs : stats.values()) {
+            cs.reset();
+        }
+        stats.clear();
+    }
+
+    private static class TotalTime implements Comparable<TotalTime> {
+
+        private final CommandStats stats;
+
+        private final long totalTime;
+
+        private TotalTime(CommandStats stats) {
+            this.stats = stats;
+            this.totalTime = stats.getTotalTime();
+        }
+
+        // Highest total time first
+        @Override
+        public int compareTo(TotalTime o) {
+            return totalTime < o.totalTime ? 1 : (totalTime > o.totalTime ? -1 : 0);
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.sendMessage;
+import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.requirePermission;
+
+import java.util.List;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Handler providing a <code>metrics</code> command that displays the command
+ * paths with the highest total execution time. Include it as a handler (or
+ * return it from a sub-command) of a ToHCommandExecutor.
+ * 
+ * @author zerothangel
+ */
+public class CommandMetricsHandler {
+
+    private static final int DEFAULT_COUNT = 10;
+
+    private final CommandMetrics commandMetrics;
+
+    private final String permission;
+
+    /**
+     * Create a CommandMetricsHandler.
+     * 
+     * @param commandMetrics the CommandMetrics to display
+     * @param permission permission required to use the command
+     */
+    public CommandMetricsHandler(CommandMetrics commandMetrics, String permission) {
+        if (commandMetrics == null)
+            throw new IllegalArgumentException("commandMetrics cannot be null");
+        if (permission == null)
+            throw new IllegalArgumentException("permission cannot be null");
+
+        this.commandMetrics = commandMetrics;
+        this.permission = permission;
+    }
+
+    @Command(value="metrics", description="Show the most expensive commands")
+    public void metrics(CommandSender sender, @Option({"-r", "--reset"}) boolean reset, @Option(value="count", optional=true) Integer count) {
+        requirePermission(sender, permission);
+
+        if (count == null || count < 1)
+            count = DEFAULT_COUNT;
+
+        List<CommandStats> top = commandMetrics.getTopByTotalTime(count);
+        if (top.isEmpty()) {
+            sendMessage(sender, "%sNo commands recorded.", ChatColor.YELLOW);
+        }
+        for (CommandStats cs : top) {
+            sendMessage(sender, "%s/%s%s: %d calls, %.1fms total, p50 %.2fms, p99 %.2fms, %d parse/%d perm/%d error",
+                    ChatColor.AQUA, cs.getPath(), ChatColor.YELLOW,
+                    cs.getCount(),
+                    cs.getTotalTime() / 1000000.0,
+                    cs.getPercentile(50.0) / 1000000.0,
+                    cs.getPercentile(99.0) / 1000000.0,
+                    cs.getParseFailures(), cs.getPermissionDenials(), cs.getExceptions());
+        }
+
+        if (reset) {
+            commandMetrics.reset();
+            sendMessage(sender, "%sCommand metrics reset.", ChatColor.YELLOW);
+        }
+    }
+
+}
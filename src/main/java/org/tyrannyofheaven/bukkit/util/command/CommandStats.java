@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Execution statistics for a single command path. Latencies are recorded
+ * into logarithmic buckets (8 per power of 2), so percentiles are accurate
+ * to within 12.5%.
+ * 
+ * @author zerothangel
+ */
+public final class CommandStats {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final String path;
+
+    private final StripedCounter count = new StripedCounter();
+
+    private final StripedCounter totalTime = new StripedCounter();
+
+    private final StripedCounter parseFailures = new StripedCounter();
+
+    private final StripedCounter permissionDenials = new StripedCounter();
+
+    private final StripedCounter exceptions = new StripedCounter();
+
+    private final AtomicLongArray histogram = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    CommandStats(String path) {
+        this.path = path;
+    }
+
+    void record(long nanos, CommandMetrics.Outcome outcome) {
+        if (nanos < 0L)
+            nanos = 0L;
+
+        count.increment();
+        totalTime.add(nanos);
+        histogram.incrementAndGet(bucketFor(nanos));
+
+        switch (outcome) {
+        case SUCCESS:
+            break;
+        case PARSE_FAILURE:
+            parseFailures.increment();
+            break;
+        case PERMISSION_DENIED:
+            permissionDenials.increment();
+            break;
+        case EXCEPTION:
+            exceptions.increment();
+            break;
+        default:
+            throw new AssertionError("Unhandled Outcome." + outcome);
+        }
+    }
+
+    void reset() {
+        count.reset();
+        totalTime.reset();
+        parseFailures.reset();
+        permissionDenials.reset();
+        exceptions.reset();
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0L);
+        }
+    }
+
+    // Values below SUB_BUCKETS get their own bucket. Otherwise, the bucket is
+    // determined by the highest set bit and the SUB_BUCKET_BITS following it.
+    private static int bucketFor(long value) {
+        if (value < SUB_BUCKETS)
+            return (int)value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exp - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // Largest value that falls into the given bucket
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long lower = (long)(SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lower + (1L << shift) - 1L;
+    }
+
+    /**
+     * Returns the command path, e.g. "perm group set".
+     * 
+     * @return the command path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the number of executions.
+     * 
+     * @return the number of executions
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the total time spent in all executions.
+     * 
+     * @return total time in nanoseconds
+     */
+    public long getTotalTime() {
+        return totalTime.sum();
+    }
+
+    /**
+     * Returns the number of executions that failed to parse.
+     * 
+     * @return the number of parse failures
+     */
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    /**
+     * Returns the number of executions denied for lack of permissions.
+     * 
+     * @return the number of permission denials
+     */
+    public long getPermissionDenials() {
+        return permissionDenials.sum();
+    }
+
+    /**
+     * Returns the number of executions where the handler threw an exception.
+     * 
+     * @return the number of handler exceptions
+     */
+    public long getExceptions() {
+        return exceptions.sum();
+    }
+
+    /**
+     * Returns the approximate execution time at the given percentile.
+     * 
+     * @param percentile the percentile, from 0.0 to 100.0
+     * @return execution time in nanoseconds, or 0 if there were no executions
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0.0 || percentile > 100.0)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+
+        long[] counts = new long[histogram.length()];
+        long total = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0L)
+            return 0L;
+
+        long target = Math.max(1L, (long)Math.ceil(total * percentile / 100.0));
+        long seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target)
+                return upperBoundOf(i);
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.util.StringUtil;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers the last tab-completion result of each sender. When the sender
+ * extends the previous query (e.g. "pl" to "pla") of the same command, the
+ * result is narrowed from the remembered one rather than recomputed.
+ * 
+ * <p>This assumes completions of a non-empty query all start with the query,
+ * which holds for the built-in TypeCompleters. Results that were cut short
+ * ({@link TruncatedCompletions}) are not remembered, since narrowing them
+ * would omit the values that were cut off.
+ * 
+ * @author zerothangel
+ */
+final class CompletionCache implements Listener {
+
+    private final Cache<CommandSender, Entry> entries;
+
+    /**
+     * Create a CompletionCache.
+     * 
+     * @param maxSize maximum number of senders to remember
+     * @param ttl how long to remember a result
+     * @param unit unit of ttl
+     */
+    CompletionCache(int maxSize, long ttl, TimeUnit unit) {
+        entries = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Narrow the sender's previous result, if possible.
+     * 
+     * @param sender the sender
+     * @param name the command name
+     * @param args the arguments, the last being the query
+     * @return the narrowed completions, or null if they must be computed
+     */
+    List<String> get(CommandSender sender, String name, String[] args) {
+        if (args.length == 0)
+            return null;
+
+        Entry entry = entries.getIfPresent(sender);
+        if (entry == null || !entry.narrows(name, args))
+            return null;
+
+        List<String> result = new ArrayList<>();
+        StringUtil.copyPartialMatches(args[args.length - 1], entry.result, result);
+        return result;
+    }
+
+    /**
+     * Remember a computed result, unless it was truncated.
+     * 
+     * @param sender the sender
+     * @param name the command name
+     * @param args the arguments, the last being the query
+     * @param result the completions
+     */
+    void put(CommandSender sender, String name, String[] args, List<String> result) {
+        if (args.length == 0)
+            return;
+        if (result instanceof TruncatedCompletions) {
+            // Can't narrow it, so drop any older result too
+            entries.invalidate(sender);
+            return;
+        }
+        entries.put(sender, new Entry(name, args, result));
+    }
+
+    /**
+     * Forget the sender's previous result.
+     * 
+     * @param sender the sender
+     */
+    void invalidate(CommandSender sender) {
+        entries.invalidate(sender);
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    private static class Entry {
+
+        private final String name;
+
+        // Arguments preceding the query
+        private final String[] path;
+
+        private final String query;
+
+        private final List<String> result;
+
+        private Entry(String name, String[] args, List<String> result) {
+            this.name = name;
+            this.path = Arrays.copyOf(args, args.length - 1);
+            this.query = args[args.length - 1];
+            this.result = Collections.unmodifiableList(new ArrayList<>(result));
+        }
+
+        // Returns true if args extend this entry's query on the same path.
+        // An empty query may complete flags or hints rather than values, so
+        // it is never narrowed.
+        private boolean narrows(String name, String[] args) {
+            String newQuery = args[args.length - 1];
+            if (query.isEmpty() || newQuery.length() < query.length())
+                return false;
+            if (!this.name.equals(name) || args.length - 1 != path.length)
+                return false;
+            for (int i = 0; i < path.length; i++) {
+                if (!path[i].equals(args[i]))
+                    return false;
+            }
+            return newQuery.regionMatches(true, 0, query, 0, query.length());
+        }
+
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
+import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.hasPermissions;
 import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.requireAllPermissions;
 import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.requireOnePermission;
 
@@ -30,7 +31,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
 
 import org.bukkit.Server;
 import org.bukkit.command.CommandSender;
@@ -48,60 +48,69 @@ import org.tyrannyofheaven.bukkit.util.ToHLoggingUtils;
  */
 final class HandlerExecutor<T extends Plugin> {
 
-    private static final Map<Class<?>, Class<?>> primitiveWrappers;
-
-    private static final Set<Class<?>> supportedParameterTypes;
-    
     private final T plugin;
 
     private final UsageOptions usageOptions;
 
-    private final Map<String, CommandMetaData> commandMap = new HashMap<>();
-
-    private final Map<Object, HandlerExecutor<T>> subCommandMap = new WeakHashMap<>();
-
-    private final Set<String> commandList = new TreeSet<>();
-
-    static {
-        // Build map of primitives to primitive wrappers
-        Map<Class<?>, Class<?>> wrappers = new HashMap<>();
-        wrappers.put(Boolean.TYPE, Boolean.class);
-        wrappers.put(Byte.TYPE, Byte.class);
-        wrappers.put(Short.TYPE, Short.class);
-        wrappers.put(Integer.TYPE, Integer.class);
-        wrappers.put(Long.TYPE, Long.class);
-        wrappers.put(Float.TYPE, Float.class);
-        wrappers.put(Double.TYPE, Double.class);
-        primitiveWrappers = Collections.unmodifiableMap(wrappers);
-
-        // Build set of supported parameter types
-        Set<Class<?>> types = new HashSet<>();
-        types.add(String.class);
-        for (Map.Entry<Class<?>, Class<?>> me : primitiveWrappers.entrySet()) {
-            types.add(me.getKey());
-            types.add(me.getValue());
-        }
-        supportedParameterTypes = Collections.unmodifiableSet(types);
-    }
-    
+    private final Map<Class<?>, TypeConverter<?>> typeConverterRegistry;
+
+    // Metadata for each handler class. Shared with all sub-command
+    // HandlerExecutors derived from this one.
+    private final ClassValue<HandlerMetaData> handlerMetaData;
+
+    // Handler object for each handler class
+    private final Map<Class<?>, Object> handlers;
+
+    // Metadata of all commands handled by this HandlerExecutor
+    private final HandlerMetaData metaData;
+
+    private volatile boolean compiledInvocation = false;
+
     /**
      * Create a HandlerExecutor instance.
      * 
      * @param plugin the associated plugin
      * @param usageOptions UsageOptions to use with the HelpBuilder
+     * @param typeConverterRegistry TypeConverters by parameter type
      * @param handlers handler objects
      */
-    HandlerExecutor(T plugin, UsageOptions usageOptions, Object... handlers) {
+    HandlerExecutor(T plugin, UsageOptions usageOptions, Map<Class<?>, TypeConverter<?>> typeConverterRegistry, Object... handlers) {
         if (plugin == null)
             throw new IllegalArgumentException("plugin cannot be null");
         if (usageOptions == null)
             throw new IllegalArgumentException("usageOptions cannot be null");
+        if (typeConverterRegistry == null)
+            throw new IllegalArgumentException("typeConverterRegistry cannot be null");
         if (handlers == null)
             handlers = new Object[0];
 
         this.plugin = plugin;
         this.usageOptions = usageOptions;
-        processHandlers(handlers);
+        this.typeConverterRegistry = typeConverterRegistry;
+        this.handlerMetaData = new ClassValue<HandlerMetaData>() {
+            @Override
+            protected HandlerMetaData computeValue(Class<?> type) {
+                return processHandler(type);
+            }
+        };
+
+        Map<Class<?>, Object> handlerMap = new HashMap<>();
+        for (Object handler : handlers) {
+            handlerMap.put(handler.getClass(), handler);
+        }
+        this.handlers = handlerMap;
+        this.metaData = processHandlers(handlers);
+    }
+
+    /**
+     * Create a HandlerExecutor instance.
+     * 
+     * @param plugin the associated plugin
+     * @param usageOptions UsageOptions to use with the HelpBuilder
+     * @param handlers handler objects
+     */
+    HandlerExecutor(T plugin, UsageOptions usageOptions, Object... handlers) {
+        this(plugin, usageOptions, TypeConverters.newRegistry(), handlers);
     }
 
     /**
@@ -115,271 +124,296 @@ final class HandlerExecutor<T extends Plugin> {
         this(plugin, new DefaultUsageOptions(), handlers);
     }
 
-    // Analyze each handler object and create/store the appropriate metadata
-    // classes.
-    private void processHandlers(Object[] handlers) {
+    // Create a HandlerExecutor for a sub-command handler. Shares
+    // configuration and the metadata cache with its parent. If handler is
+    // null, the HandlerExecutor may only be used for tab completion.
+    private HandlerExecutor(HandlerExecutor<T> parent, Class<?> handlerClass, Object handler) {
+        this.plugin = parent.plugin;
+        this.usageOptions = parent.usageOptions;
+        this.typeConverterRegistry = parent.typeConverterRegistry;
+        this.handlerMetaData = parent.handlerMetaData;
+        if (handler != null)
+            this.handlers = Collections.<Class<?>, Object>singletonMap(handlerClass, handler);
+        else
+            this.handlers = Collections.emptyMap();
+        this.metaData = handlerMetaData.get(handlerClass);
+        this.compiledInvocation = parent.compiledInvocation;
+    }
+
+    // Merge the (cached) metadata of each handler object's class.
+    private HandlerMetaData processHandlers(Object[] handlers) {
+        if (handlers.length == 1)
+            return handlerMetaData.get(handlers[0].getClass());
+
+        Map<String, CommandMetaData> commandMap = new HashMap<>();
+        Set<String> commandList = new TreeSet<>();
+        PrefixTrie commandTrie = new PrefixTrie();
         for (Object handler : handlers) {
-            Class<?> clazz = handler.getClass();
-            // Scan each method
-            for (Method method : clazz.getMethods()) {
-                // Handle @Require if present
-                Require require = method.getAnnotation(Require.class);
-                String[] permissions = new String[0];
-                boolean requireAll = false;
-                boolean checkNegations = false;
-                if (require != null) {
-                    permissions = require.value();
-                    requireAll = require.all();
-                    checkNegations = require.checkNegations();
+            HandlerMetaData hmd = handlerMetaData.get(handler.getClass());
+            for (Map.Entry<String, CommandMetaData> me : hmd.getCommandMap().entrySet()) {
+                if (commandMap.put(me.getKey(), me.getValue()) != null) {
+                    throw new CommandException("Duplicate command: %s (%s#%s)", me.getKey(), handler.getClass().getName(), me.getValue().getMethod().getName());
                 }
+            }
+            for (String name : hmd.getCommandList()) {
+                commandList.add(name);
+                commandTrie.add(name);
+            }
+        }
+        return new HandlerMetaData(commandMap, commandList, commandTrie);
+    }
 
-                // @Command or @SubCommand present?
-                Command command = method.getAnnotation(Command.class);
+    // Analyze a handler class and create the appropriate metadata classes.
+    private HandlerMetaData processHandler(Class<?> clazz) {
+        Map<String, CommandMetaData> commandMap = new HashMap<>();
+        Set<String> commandList = new TreeSet<>();
+        PrefixTrie commandTrie = new PrefixTrie();
+
+        // Scan each method
+        for (Method method : clazz.getMethods()) {
+            // Handle @Require if present
+            Require require = method.getAnnotation(Require.class);
+            String[] permissions = new String[0];
+            boolean requireAll = false;
+            boolean checkNegations = false;
+            if (require != null) {
+                permissions = require.value();
+                requireAll = require.all();
+                checkNegations = require.checkNegations();
+            }
 
-                if (command != null) {
-                    // Handle @Command
-                    List<MethodParameter> options = new ArrayList<>();
+            // @Command or @SubCommand present?
+            Command command = method.getAnnotation(Command.class);
 
-                    boolean hasLabel = false;
-                    boolean hasRest = false; // There can be only one!
+            if (command != null) {
+                // Handle @Command
+                List<MethodParameter> options = new ArrayList<>();
 
-                    // Scan each parameter
-                    for (int i = 0; i < method.getParameterTypes().length; i++) {
-                        Class<?> paramType = method.getParameterTypes()[i];
-                        Annotation[] anns = method.getParameterAnnotations()[i];
+                boolean hasLabel = false;
+                boolean hasRest = false; // There can be only one!
+                int slot = 0;
 
-                        MethodParameter ma = null;
-                        
-                        // Special parameter type?
-                        if (paramType.isAssignableFrom(Server.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.SERVER);
-                        }
-                        else if (paramType.isAssignableFrom(plugin.getClass())) {
-                            ma = new SpecialParameter(SpecialParameter.Type.PLUGIN);
+                // Scan each parameter
+                for (int i = 0; i < method.getParameterTypes().length; i++) {
+                    Class<?> paramType = method.getParameterTypes()[i];
+                    Annotation[] anns = method.getParameterAnnotations()[i];
+
+                    MethodParameter ma = null;
+                    
+                    // Special parameter type?
+                    if (paramType.isAssignableFrom(Server.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.SERVER);
+                    }
+                    else if (paramType.isAssignableFrom(plugin.getClass())) {
+                        ma = new SpecialParameter(SpecialParameter.Type.PLUGIN);
+                    }
+                    else if (paramType.isAssignableFrom(CommandSender.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.COMMAND_SENDER);
+                    }
+                    else if (paramType.isAssignableFrom(HelpBuilder.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.USAGE_BUILDER);
+                    }
+                    else if (paramType.isAssignableFrom(CommandSession.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.SESSION);
+                    }
+                    else if (paramType.isArray() && paramType.getComponentType() == String.class) {
+                        if (hasRest) {
+                            throw new CommandException("Method already has a String[] parameter (%s#%s)", clazz.getName(), method.getName());
                         }
-                        else if (paramType.isAssignableFrom(CommandSender.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.COMMAND_SENDER);
+
+                        ma = new SpecialParameter(SpecialParameter.Type.REST);
+                        hasRest = true;
+                    }
+                    else {
+                        // Grab the @Option and @Session annotations
+                        Option optAnn = null;
+                        Session sessAnn = null;
+                        for (Annotation ann : anns) {
+                            if (ann instanceof Option) {
+                                optAnn = (Option)ann;
+                            }
+                            else if (ann instanceof Session) {
+                                sessAnn = (Session)ann;
+                            }
                         }
-                        else if (paramType.isAssignableFrom(HelpBuilder.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.USAGE_BUILDER);
+
+                        // Both must not be present
+                        if (optAnn != null && sessAnn != null) {
+                            throw new CommandException("Parameter cannot have both @Option and @Session annotations (%s#%s)", clazz.getName(), method.getName());
                         }
-                        else if (paramType.isAssignableFrom(CommandSession.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.SESSION);
+                        else if (sessAnn != null) {
+                            // @Session
+                            ma = new SessionParameter(sessAnn.value(), paramType);
                         }
-                        else if (paramType.isArray() && paramType.getComponentType() == String.class) {
-                            if (hasRest) {
-                                throw new CommandException("Method already has a String[] parameter (%s#%s)", handler.getClass().getName(), method.getName());
+                        else if (optAnn != null) {
+                            // @Option
+                            
+                            // Supported parameter type?
+                            TypeConverter<?> converter = typeConverterRegistry.get(paramType);
+                            if (converter == null) {
+                                throw new CommandException("Unsupported parameter type: %s (%s#%s)", paramType, clazz.getName(), method.getName());
                             }
 
-                            ma = new SpecialParameter(SpecialParameter.Type.REST);
-                            hasRest = true;
+                            ma = new OptionMetaData(optAnn.value(), optAnn.valueName(), paramType, optAnn.optional(), optAnn.nullable(), optAnn.completer(), converter, slot++);
                         }
                         else {
-                            // Grab the @Option and @Session annotations
-                            Option optAnn = null;
-                            Session sessAnn = null;
-                            for (Annotation ann : anns) {
-                                if (ann instanceof Option) {
-                                    optAnn = (Option)ann;
-                                }
-                                else if (ann instanceof Session) {
-                                    sessAnn = (Session)ann;
-                                }
-                            }
+                            // Not annotated at all
 
-                            // Both must not be present
-                            if (optAnn != null && sessAnn != null) {
-                                throw new CommandException("Parameter cannot have both @Option and @Session annotations (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-                            else if (sessAnn != null) {
-                                // @Session
-                                ma = new SessionParameter(sessAnn.value(), paramType);
-                            }
-                            else if (optAnn != null) {
-                                // @Option
-                                
-                                // Supported parameter type?
-                                if (!supportedParameterTypes.contains(paramType)) {
-                                    throw new CommandException("Unsupported parameter type: %s (%s#%s)", paramType, handler.getClass().getName(), method.getName());
+                            // Is it a String parameter?
+                            if (paramType == String.class) {
+                                if (hasLabel) {
+                                    throw new CommandException("Method already has an unannotated String parameter (%s#%s)", clazz.getName(), method.getName());
                                 }
-
-                                ma = new OptionMetaData(optAnn.value(), optAnn.valueName(), paramType, optAnn.optional(), optAnn.nullable(), optAnn.completer());
-                            }
-                            else {
-                                // Not annotated at all
-
-                                // Is it a String parameter?
-                                if (paramType == String.class) {
-                                    if (hasLabel) {
-                                        throw new CommandException("Method already has an unannotated String parameter (%s#%s)", handler.getClass().getName(), method.getName());
-                                    }
-                                    
-                                    ma = new SpecialParameter(SpecialParameter.Type.LABEL);
-                                    hasLabel = true;
-                                }
-                                else
-                                    throw new CommandException("Non-special parameters must be annotated with @Option (%s#%s)", handler.getClass().getName(), method.getName());
+                                
+                                ma = new SpecialParameter(SpecialParameter.Type.LABEL);
+                                hasLabel = true;
                             }
+                            else
+                                throw new CommandException("Non-special parameters must be annotated with @Option (%s#%s)", clazz.getName(), method.getName());
                         }
-                        
-                        options.add(ma);
                     }
+                    
+                    options.add(ma);
+                }
 
-                    // Some validation of option ordering
-                    // Flags (-f, --flag) can appear anywhere.
-                    // Optional arguments must follow positional ones.
-                    // Nullable arguments must follow non-nullable ones.
-                    List<MethodParameter> reversed = new ArrayList<>(options);
-                    Collections.reverse(reversed); // easier to do this in reverse
-                    boolean positional = false; // true if positional arguments have started
-                    boolean nonNullable = false; // true if non-nullable arguments have started
-                    for (MethodParameter ma : reversed) {
-                        if (!(ma instanceof OptionMetaData)) continue;
-                        OptionMetaData omd = (OptionMetaData)ma;
-                        if (omd.isArgument()) {
-                            if (!omd.isOptional()) {
-                                positional = true;
-                            }
-                            else if (positional) {
-                                throw new CommandException("Optional parameters must follow all non-optional ones (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-                            
-                            if (!omd.isNullable()) {
-                                nonNullable = true;
-                            }
-                            else if (nonNullable) {
-                                throw new CommandException("Nullable parameters must follow all non-nullable ones (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
+                // Some validation of option ordering
+                // Flags (-f, --flag) can appear anywhere.
+                // Optional arguments must follow positional ones.
+                // Nullable arguments must follow non-nullable ones.
+                List<MethodParameter> reversed = new ArrayList<>(options);
+                Collections.reverse(reversed); // easier to do this in reverse
+                boolean positional = false; // true if positional arguments have started
+                boolean nonNullable = false; // true if non-nullable arguments have started
+                for (MethodParameter ma : reversed) {
+                    if (!(ma instanceof OptionMetaData)) continue;
+                    OptionMetaData omd = (OptionMetaData)ma;
+                    if (omd.isArgument()) {
+                        if (!omd.isOptional()) {
+                            positional = true;
+                        }
+                        else if (positional) {
+                            throw new CommandException("Optional parameters must follow all non-optional ones (%s#%s)", clazz.getName(), method.getName());
+                        }
+                        
+                        if (!omd.isNullable()) {
+                            nonNullable = true;
+                        }
+                        else if (nonNullable) {
+                            throw new CommandException("Nullable parameters must follow all non-nullable ones (%s#%s)", clazz.getName(), method.getName());
                         }
                     }
+                }
 
-                    CommandMetaData cmd = new CommandMetaData(handler, method, options, permissions, requireAll, checkNegations, command.description(), hasRest, hasRest ? command.varargs() : null, hasRest ? command.completer() : null);
-                    for (String commandName : command.value()) {
-                        if (commandMap.put(commandName, cmd) != null) {
-                            throw new CommandException("Duplicate command: %s (%s#%s)", commandName, handler.getClass().getName(), method.getName());
-                        }
+                // Validate declared sub-command handler
+                Class<?> subHandler = command.subHandler();
+                if (subHandler != void.class) {
+                    if (method.getReturnType() == Void.TYPE) {
+                        throw new CommandException("subHandler given for a command that is not a sub-command (%s#%s)", clazz.getName(), method.getName());
+                    }
+                    else if (!method.getReturnType().isAssignableFrom(subHandler)) {
+                        throw new CommandException("subHandler %s is not compatible with return type (%s#%s)", subHandler.getName(), clazz.getName(), method.getName());
+                    }
+                }
+
+                CommandMetaData cmd = new CommandMetaData(command.value()[0], clazz, method, options, permissions, requireAll, checkNegations, command.description(), hasRest, hasRest ? command.varargs() : null, hasRest ? command.completer() : null, subHandler);
+                for (String commandName : command.value()) {
+                    if (commandMap.put(commandName, cmd) != null) {
+                        throw new CommandException("Duplicate command: %s (%s#%s)", commandName, clazz.getName(), method.getName());
                     }
-                    
-                    // Track unaliased name for easy registration
-                    // Dupes would have been handled above
-                    commandList.add(command.value()[0]);
                 }
+                
+                // Track unaliased name for easy registration
+                // Dupes would have been handled above
+                commandList.add(command.value()[0]);
+                commandTrie.add(command.value()[0]);
             }
         }
+
+        return new HandlerMetaData(commandMap, commandList, commandTrie);
     }
 
-    // Convert string to boolean (a little more friendlier than Boolean.valueOf(String))
-    private boolean toBoolean(String text) {
-        text = text.trim().toLowerCase();
-        if ("true".equals(text) || "t".equals(text) || "yes".equals(text) || "y".equals(text) || "on".equals(text))
-            return true;
-        else if ("false".equals(text) || "f".equals(text) || "no".equals(text) || "n".equals(text) || "off".equals(text))
-            return false;
-        else
-            throw new IllegalArgumentException("Cannot convert string to boolean");
+    // Convert the text of an option using its TypeConverter
+    private Object convert(OptionMetaData omd, String text) {
+        try {
+            return omd.getConverter().convert(text);
+        }
+        catch (NumberFormatException e) {
+            throw new ParseException("Invalid number: %s", omd.getName());
+        }
+        catch (IllegalArgumentException e) {
+            if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE)
+                throw new ParseException("Invalid boolean: %s", omd.getName());
+            throw new ParseException("Invalid value: %s", omd.getName());
+        }
     }
 
     // Given parsed arguments and metadata, create an argument list suitable
     // for reflective invoke.
     private Object[] buildMethodArgs(CommandMetaData cmd, CommandSender sender, ParsedArgs pa, String label, InvocationChain invChain, CommandSession session, Set<String> possibleCommands) throws Throwable {
-        List<Object> result = new ArrayList<>(cmd.getParameters().size());
-        for (MethodParameter mp : cmd.getParameters()) {
+        List<MethodParameter> parameters = cmd.getParameters();
+        Object[] result = new Object[parameters.size()];
+        for (int i = 0; i < result.length; i++) {
+            MethodParameter mp = parameters.get(i);
             if (mp instanceof SpecialParameter) {
                 SpecialParameter sp = (SpecialParameter)mp;
-                if (sp.getType() == SpecialParameter.Type.SERVER) {
-                    result.add(plugin.getServer());
-                }
-                else if (sp.getType() == SpecialParameter.Type.PLUGIN) {
-                    result.add(plugin);
-                }
-                else if (sp.getType() == SpecialParameter.Type.COMMAND_SENDER) {
-                    result.add(sender);
-                }
-                else if (sp.getType() == SpecialParameter.Type.LABEL) {
-                    result.add(label);
-                }
-                else if (sp.getType() == SpecialParameter.Type.USAGE_BUILDER) {
-                    result.add(getHelpBuilder(invChain, possibleCommands));
-                }
-                else if (sp.getType() == SpecialParameter.Type.SESSION) {
-                    result.add(session);
-                }
-                else if (sp.getType() == SpecialParameter.Type.REST) {
-                    result.add(pa.getRest());
-                }
-                else {
+                switch (sp.getType()) {
+                case SERVER:
+                    result[i] = plugin.getServer();
+                    break;
+                case PLUGIN:
+                    result[i] = plugin;
+                    break;
+                case COMMAND_SENDER:
+                    result[i] = sender;
+                    break;
+                case LABEL:
+                    result[i] = label;
+                    break;
+                case USAGE_BUILDER:
+                    result[i] = getHelpBuilder(invChain, possibleCommands);
+                    break;
+                case SESSION:
+                    result[i] = session;
+                    break;
+                case REST:
+                    result[i] = pa.getRest();
+                    break;
+                default:
                     throw new AssertionError("Unknown SpecialParameter type");
                 }
             }
             else if (mp instanceof OptionMetaData) {
                 OptionMetaData omd = (OptionMetaData)mp;
-                String text = pa.getOption(omd.getName());
+                String text = pa.getOption(omd);
 
                 // If Boolean or boolean, treat specially
                 if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE) {
                     if (omd.isArgument()) {
                         if (text != null) {
-                            try {
-                                result.add(toBoolean(text));
-                            }
-                            catch (IllegalArgumentException e) {
-                                throw new ParseException("Invalid boolean: %s", omd.getName());
-                            }
+                            result[i] = convert(omd, text);
                         }
                         else if (!omd.isOptional()) {
-                            if (omd.isNullable()) {
-                                result.add(null);
-                            }
-                            else {
+                            if (!omd.isNullable()) {
                                 // Missing positional argument
                                 throw new ParseException("Missing argument: %s", omd.getName());
                             }
+                            // Otherwise null
                         }
                         else {
                             // Flag not specified
                             // Set to false if primitive, null if wrapper
                             if (omd.getType() == Boolean.TYPE) {
-                                result.add(Boolean.FALSE);
-                            }
-                            else {
-                                result.add(null);
+                                result[i] = Boolean.FALSE;
                             }
                         }
                     }
                     else {
                         // Flag
-                        result.add(Boolean.valueOf(text != null));
+                        result[i] = Boolean.valueOf(text != null);
                     }
                 }
                 else if (text != null) {
-                    if (omd.getType() == String.class) {
-                        // Nothing to convert
-                        result.add(text);
-                    }
-                    else {
-                        // Use .valueOf(String) to convert
-                        Class<?> paramType = omd.getType();
-                        // Primitives don't have .valueOf(String)
-                        Class<?> newType = primitiveWrappers.get(paramType);
-                        if (newType != null)
-                            paramType = newType;
-                        try {
-                            Method valueOf = paramType.getMethod("valueOf", String.class);
-                            Object value = valueOf.invoke(null, text);
-                            result.add(value);
-                        }
-                        catch (InvocationTargetException e) {
-                            // Unwrap, see if it's a NumberFormatException
-                            if (e.getCause() instanceof NumberFormatException) {
-                                // Complain
-                                throw new ParseException("Invalid number: %s", omd.getName());
-                            }
-                            else {
-                                // Re-throw
-                                throw e.getCause();
-                            }
-                        }
-                    }
+                    result[i] = convert(omd, text);
                 }
                 else {
                     if (omd.isArgument() && !omd.isOptional()) {
@@ -388,19 +422,47 @@ final class HandlerExecutor<T extends Plugin> {
                             throw new ParseException("Missing argument: %s", omd.getName());
                         }
                     }
-                    
-                    result.add(null);
+                    // Otherwise null
                 }
             }
             else if (mp instanceof SessionParameter) {
                 SessionParameter sp = (SessionParameter)mp;
-                result.add(session.getValue(sp.getName(), sp.getType()));
+                result[i] = session.getValue(sp.getName(), sp.getType());
             }
             else {
                 throw new AssertionError("Unknown MethodParameter type");
             }
         }
-        return result.toArray();
+        return result;
+    }
+
+    // Invoke the command's handler method. Uses the pre-bound MethodHandle
+    // if compiled invocation is enabled, otherwise falls back to reflection.
+    private Object invokeCommand(CommandMetaData cmd, Object[] methodArgs) throws Throwable {
+        Object handler = handlers.get(cmd.getHandlerClass());
+
+        if (compiledInvocation && cmd.getMethodHandle() != null) {
+            return (Object)cmd.getMethodHandle().invokeExact(handler, methodArgs);
+        }
+
+        try {
+            return cmd.getMethod().invoke(handler, methodArgs);
+        }
+        catch (InvocationTargetException e) {
+            // Unwrap exception, re-throw
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Enable or disable invocation of handler methods through pre-bound
+     * MethodHandles rather than reflection. Sub-command HandlerExecutors
+     * created afterwards inherit this setting.
+     * 
+     * @param compiledInvocation true to use MethodHandles
+     */
+    void setCompiledInvocation(boolean compiledInvocation) {
+        this.compiledInvocation = compiledInvocation;
     }
 
     /**
@@ -428,8 +490,16 @@ final class HandlerExecutor<T extends Plugin> {
             invChain = new InvocationChain();
         if (session == null)
             session = new CommandSession();
+        if (args == null)
+            args = new String[0];
 
-        CommandMetaData cmd = commandMap.get(name);
+        execute(sender, name, label, args, 0, invChain, session, new ParsedArgs());
+    }
+
+    // Executes the named command, taking its arguments from args[offset]
+    // onwards. The ParsedArgs instance is re-used by any sub-commands.
+    private void execute(CommandSender sender, String name, String label, String[] args, int offset, InvocationChain invChain, CommandSession session, ParsedArgs pa) throws Throwable {
+        CommandMetaData cmd = metaData.getCommandMap().get(name);
         if (cmd == null)
             throw new ParseException("Unknown command: %s", name);
 
@@ -444,55 +514,38 @@ final class HandlerExecutor<T extends Plugin> {
         // Save into chain
         invChain.addInvocation(label, cmd);
 
-        ParsedArgs pa = new ParsedArgs();
-        pa.parse(cmd, args);
-        if (!cmd.hasRest() && pa.getRest().length > 0)
+        pa.parse(cmd, args, offset, args.length);
+        if (!cmd.hasRest() && pa.getRestLength() > 0)
             throw new ParseException("Too many arguments");
         Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, null);
-        Object nextHandler = null;
-        try {
-            nextHandler = cmd.getMethod().invoke(cmd.getHandler(), methodArgs);
-        }
-        catch (InvocationTargetException e) {
-            // Unwrap exception, re-throw
-            throw e.getCause();
-        }
+        Object nextHandler = invokeCommand(cmd, methodArgs);
 
         if (nextHandler != null) {
             // Handle a sub-command
-            args = pa.getRest();
-            if (args.length >= 1) {
-                // Check HandlerExecutor cache
+            if (pa.getRestLength() >= 1) {
                 HandlerExecutor<T> he = handlerExecutorFor(nextHandler);
 
                 // Chain to next handler
-                String subName = args[0];
-                args = Arrays.copyOfRange(args, 1, args.length);
+                int subStart = pa.getRestStart();
+                String subName = args[subStart];
 
-                he.execute(sender, subName, subName, args, invChain, session);
+                he.execute(sender, subName, subName, args, subStart + 1, invChain, session, pa);
             }
         }
     }
 
     // Add the named CommandMetaData to an InvocationChain
     void fillInvocationChain(InvocationChain invChain, String label) {
-        CommandMetaData cmd = commandMap.get(label);
+        CommandMetaData cmd = metaData.getCommandMap().get(label);
         if (cmd == null)
             throw new IllegalArgumentException("Unknown command: " + label);
         invChain.addInvocation(label, cmd);
     }
 
-    // Retrieve cached HandlerExecutor for given handler object, creating
-    // one if it doesn't exist
-    synchronized HandlerExecutor<T> handlerExecutorFor(Object handler) {
-        // Check HandlerExecutor cache
-        HandlerExecutor<T> he = subCommandMap.get(handler);
-        if (he == null) {
-            // No HandlerExecutor yet, create a new one
-            he = new HandlerExecutor<>(plugin, usageOptions, handler);
-            subCommandMap.put(handler, he);
-        }
-        return he;
+    // Retrieve a HandlerExecutor for the given handler object. Metadata is
+    // only computed the first time a handler class is seen, so this is cheap.
+    HandlerExecutor<T> handlerExecutorFor(Object handler) {
+        return new HandlerExecutor<>(this, handler.getClass(), handler);
     }
 
     // Create a HelpBuilder associated with this HandlerExecutor
@@ -502,7 +555,7 @@ final class HandlerExecutor<T extends Plugin> {
 
     // Register top-level commands
     void registerCommands(TabExecutor executor) {
-        for (String name : commandList) {
+        for (String name : metaData.getCommandList()) {
             PluginCommand command = ((JavaPlugin)plugin).getCommand(name);
             if (command == null) {
                 ToHLoggingUtils.warn(plugin, "Command '%s' not found in plugin.yml -- ignoring", name);
@@ -529,21 +582,30 @@ final class HandlerExecutor<T extends Plugin> {
             invChain = new InvocationChain();
         if (session == null)
             session = new CommandSession();
+        if (args == null)
+            args = new String[0];
 
+        return getTabCompletions(sender, name, label, args, 0, invChain, session, new ParsedArgs(), typeCompleterRegistry);
+    }
+
+    // Determine possible completions for the last argument, taking this
+    // command's arguments from args[offset] onwards. The ParsedArgs instance
+    // is re-used by any sub-commands.
+    private List<String> getTabCompletions(CommandSender sender, String name, String label, String[] args, int offset, InvocationChain invChain, CommandSession session, ParsedArgs pa, Map<String, TypeCompleter> typeCompleterRegistry) throws Throwable {
         // Isolate query argument (last argument)
         String query;
-        String[] argsNoQuery;
-        if (args.length > 0) {
+        int end;
+        if (args.length > offset) {
             // Have at least one
             query = args[args.length - 1];
-            argsNoQuery = Arrays.copyOfRange(args, 0, args.length - 1);
+            end = args.length - 1;
         }
         else {
             query = "";
-            argsNoQuery = args;
+            end = args.length;
         }
 
-        CommandMetaData cmd = commandMap.get(name);
+        CommandMetaData cmd = metaData.getCommandMap().get(name);
         if (cmd == null)
             throw new ParseException("Unknown command: %s", name);
 
@@ -559,13 +621,12 @@ final class HandlerExecutor<T extends Plugin> {
         invChain.addInvocation(label, cmd);
 
         // Tab completion on cmd.getFlagOptions() and cmd.getPositionalArguments()
-        ParsedArgs pa = new ParsedArgs();
         OptionMetaData missingValue;
         boolean consumedAll;
         try {
-            pa.parse(cmd, argsNoQuery);
+            pa.parse(cmd, args, offset, end);
             missingValue = pa.getUnparsedArgument(); // possible because of nullable
-            consumedAll = pa.getRest().length == 0;
+            consumedAll = pa.getRestLength() == 0;
         }
         catch (UnknownFlagException e) {
             // Tab-completion ain't gonna help
@@ -581,14 +642,7 @@ final class HandlerExecutor<T extends Plugin> {
             List<String> source = new ArrayList<>();
             source.add("--"); // explicit end of flags
             for (OptionMetaData omd : cmd.getFlagOptions()) {
-                boolean found = false;
-                for (String flag : omd.getNames()) {
-                    if (pa.getOptions().containsKey(flag)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (found) {
+                if (pa.hasOption(omd)) {
                     // Skip this one (we don't support multiple flags)
                     continue;
                 }
@@ -603,34 +657,40 @@ final class HandlerExecutor<T extends Plugin> {
         if (missingValue != null) {
             // Use missing value's type to get candidates
             List<String> result = new ArrayList<>();
-            addCompletions(typeCompleterRegistry, missingValue, sender, query, result);
+            if (addCompletions(typeCompleterRegistry, missingValue, sender, query, result))
+                return new TruncatedCompletions(result);
             return result;
         }
 
         // Check if sub-command
         if (cmd.getMethod().getReturnType() != Void.TYPE) {
-            // Sub-command, attempt to execute it. It better not have side-effects!
+            HandlerExecutor<T> he = null;
             Set<String> possibleCommands = new HashSet<>();
-            Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, possibleCommands);
-            Object nextHandler;
-            try {
-                nextHandler = cmd.getMethod().invoke(cmd.getHandler(), methodArgs);
+            if (cmd.getSubHandlerClass() != null) {
+                // Declared sub-handler, descend using its metadata alone
+                he = new HandlerExecutor<>(this, cmd.getSubHandlerClass(), null);
             }
-            catch (InvocationTargetException e) {
-                throw e.getCause();
+            else if (handlers.containsKey(cmd.getHandlerClass())) {
+                // Sub-command, attempt to execute it. It better not have side-effects!
+                Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, possibleCommands);
+                Object nextHandler = invokeCommand(cmd, methodArgs);
+                if (nextHandler != null)
+                    he = handlerExecutorFor(nextHandler);
             }
-            
-            if (nextHandler != null) {
-                args = pa.getRest();
+            // else no handler object to invoke (parent was declared)
 
-                if (args.length >= 1) {
-                    HandlerExecutor<T> he = handlerExecutorFor(nextHandler);
+            if (he != null) {
 
-                    // Chain to next
-                    String subName = args[0];
-                    args = Arrays.copyOfRange(args, 1, args.length + 1); // room for query
-                    args[args.length - 1] = query; // stuff query argument back in
-                    return he.getTabCompletions(sender, subName, subName, args, invChain, session, typeCompleterRegistry);
+                if (pa.getRestLength() >= 1) {
+                    // Chain to next. Query argument remains at the end of args.
+                    int subStart = pa.getRestStart();
+                    String subName = args[subStart];
+                    return he.getTabCompletions(sender, subName, subName, args, subStart + 1, invChain, session, pa, typeCompleterRegistry);
+                }
+                else if (possibleCommands.isEmpty()) {
+                    // Query is the sub-command name itself, and the handler
+                    // method didn't name its sub-commands via HelpBuilder
+                    return he.getCommandCompletions(sender, query);
                 }
             }
             
@@ -659,7 +719,10 @@ final class HandlerExecutor<T extends Plugin> {
             typeCompleter = typeCompleterRegistry.get(completerName);
             
             if (typeCompleter != null) {
-                result.addAll(typeCompleter.complete(String.class, arg, sender, query));
+                List<String> completions = typeCompleter.complete(String.class, arg, sender, query);
+                if (completions instanceof TruncatedCompletions)
+                    return completions;
+                result.addAll(completions);
             }
             return result;
         }
@@ -668,7 +731,20 @@ final class HandlerExecutor<T extends Plugin> {
         return Collections.emptyList();
     }
 
-    private void addCompletions(Map<String, TypeCompleter> typeCompleterRegistry, OptionMetaData omd, CommandSender sender, String partial, List<String> destination) {
+    // Return unaliased names of commands starting with the given prefix
+    // that the sender has permission to execute, in sorted order
+    List<String> getCommandCompletions(CommandSender sender, String prefix) {
+        List<String> result = new ArrayList<>();
+        for (String name : metaData.getCommandTrie().getMatches(prefix)) {
+            CommandMetaData cmd = metaData.getCommandMap().get(name);
+            if (hasPermissions(sender, cmd.isRequireAll(), cmd.isCheckNegations(), cmd.getPermissions()))
+                result.add(name);
+        }
+        return result;
+    }
+
+    // Returns true if the completions were truncated by the TypeCompleter
+    private boolean addCompletions(Map<String, TypeCompleter> typeCompleterRegistry, OptionMetaData omd, CommandSender sender, String partial, List<String> destination) {
         // Determine suitable TypeCompleter
         TypeCompleter typeCompleter = null;
         String arg = null;
@@ -686,7 +762,9 @@ final class HandlerExecutor<T extends Plugin> {
         }
         
         if (typeCompleter != null) {
-            destination.addAll(typeCompleter.complete(omd.getType(), arg, sender, partial));
+            List<String> completions = typeCompleter.complete(omd.getType(), arg, sender, partial);
+            destination.addAll(completions);
+            return completions instanceof TruncatedCompletions;
         }
         else {
             // Use values based on type.
@@ -702,6 +780,7 @@ final class HandlerExecutor<T extends Plugin> {
                 destination.add(String.format("<%s>", omd.isArgument() ? omd.getName() : omd.getValueName()));
             }
         }
+        return false;
     }
 
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Metadata for all commands of a handler class (or a set of handler classes).
+ * Immutable once created.
+ * 
+ * @author zerothangel
+ */
+final class HandlerMetaData {
+
+    private final Map<String, CommandMetaData> commandMap;
+
+    private final Set<String> commandList;
+
+    private final PrefixTrie commandTrie;
+
+    /**
+     * Create a HandlerMetaData. The given collections must not be modified
+     * afterwards.
+     * 
+     * @param commandMap commands by name (including aliases)
+     * @param commandList unaliased command names
+     * @param commandTrie trie of unaliased command names
+     */
+    HandlerMetaData(Map<String, CommandMetaData> commandMap, Set<String> commandList, PrefixTrie commandTrie) {
+        this.commandMap = Collections.unmodifiableMap(commandMap);
+        this.commandList = Collections.unmodifiableSet(commandList);
+        this.commandTrie = commandTrie;
+    }
+
+    /**
+     * Returns commands by name, including aliases.
+     * 
+     * @return map of command name to CommandMetaData
+     */
+    Map<String, CommandMetaData> getCommandMap() {
+        return commandMap;
+    }
+
+    /**
+     * Returns the unaliased names of all commands.
+     * 
+     * @return sorted set of command names
+     */
+    Set<String> getCommandList() {
+        return commandList;
+    }
+
+    /**
+     * Returns the prefix trie of unaliased command names.
+     * 
+     * @return the PrefixTrie
+     */
+    PrefixTrie getCommandTrie() {
+        return commandTrie;
+    }
+
+}
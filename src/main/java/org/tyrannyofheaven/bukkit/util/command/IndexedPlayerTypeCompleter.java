@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * TypeCompleter for online players that keeps a sorted index of their names,
+ * maintained from join and quit events. Prefix queries are answered with a
+ * range lookup rather than by scanning every online player.
+ * 
+ * <p>Register it in place of the default, e.g.
+ * <code>registerTypeCompleter("player", new IndexedPlayerTypeCompleter(plugin, 50, true))</code>.
+ * 
+ * <p>The index itself may be queried from any thread. However, visibility is
+ * checked using {@link Player#canSee(Player)}, which is only safe on the main
+ * thread. So if <code>checkVisibility</code> is true, do not wrap this in an
+ * {@link AsyncTypeCompleter}.
+ * 
+ * @author zerothangel
+ */
+public class IndexedPlayerTypeCompleter implements TypeCompleter, Listener {
+
+    // Online players by lowercased name
+    private final NavigableMap<String, Player> players = new ConcurrentSkipListMap<>();
+
+    private final int limit;
+
+    private final boolean checkVisibility;
+
+    /**
+     * Create an IndexedPlayerTypeCompleter and register it for player
+     * events.
+     * 
+     * @param plugin the plugin to register events with
+     * @param limit maximum number of completions to return
+     * @param checkVisibility true if players the sender can't see should be
+     *   omitted
+     */
+    public IndexedPlayerTypeCompleter(Plugin plugin, int limit, boolean checkVisibility) {
+        this(limit, checkVisibility);
+        if (plugin == null)
+            throw new IllegalArgumentException("plugin cannot be null");
+
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            add(player);
+        }
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    // Create an index without registering for events (used by tests)
+    IndexedPlayerTypeCompleter(int limit, boolean checkVisibility) {
+        if (limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+
+        this.limit = limit;
+        this.checkVisibility = checkVisibility;
+    }
+
+    @Override
+    public List<String> complete(Class<?> clazz, String arg, CommandSender sender, String partial) {
+        if (clazz == String.class) {
+            Player viewer = checkVisibility && sender instanceof Player ? (Player)sender : null;
+            if (viewer != null && !Bukkit.isPrimaryThread())
+                throw new IllegalStateException("Visibility can only be checked on the main thread");
+            String prefix = partial.toLowerCase();
+
+            List<String> result = new ArrayList<>();
+            for (Map.Entry<String, Player> me : players.tailMap(prefix).entrySet()) {
+                if (!me.getKey().startsWith(prefix))
+                    break;
+                if (viewer == null || viewer.canSee(me.getValue())) {
+                    if (result.size() >= limit)
+                        return new TruncatedCompletions(result); // More matches than the limit
+                    result.add(me.getValue().getName());
+                }
+            }
+            return result;
+        }
+        return Collections.emptyList();
+    }
+
+    private void add(Player player) {
+        players.put(player.getName().toLowerCase(), player);
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        add(event.getPlayer());
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        Player player = event.getPlayer();
+        players.remove(player.getName().toLowerCase(), player);
+    }
+
+}
@@ -122,6 +122,21 @@ final class InvocationChain {
         return usage.toString();
     }
 
+    // Generate the command path, e.g. "perm group set", using primary
+    // command names rather than the labels typed (which may be aliases).
+    // The given name is used for the first element.
+    String getPath(String name) {
+        if (chain.size() <= 1)
+            return name;
+
+        StringBuilder path = new StringBuilder(name);
+        for (Iterator<CommandInvocation> i = chain.listIterator(1); i.hasNext();) {
+            path.append(' ');
+            path.append(i.next().getCommandMetaData().getName());
+        }
+        return path.toString();
+    }
+
     // Tests whether the given permissible can execute this entire chain
     boolean canBeExecutedBy(Permissible permissible) {
         for (CommandInvocation ci : chain) {
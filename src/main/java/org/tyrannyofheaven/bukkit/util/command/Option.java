@@ -27,6 +27,8 @@ import java.lang.annotation.Target;
  * optional by default), you must use a wrapper type. Otherwise you will get
  * errors. Note however, that optional boolean parameters are OK (they will
  * default to false).
+ * <p>Other parameter types are supported if a {@link TypeConverter} has been
+ * registered for them via {@link ToHCommandExecutor#registerTypeConverter(Class, TypeConverter)}.
  * 
  * @author zerothangel
  */
@@ -40,14 +40,21 @@ final class OptionMetaData implements MethodParameter {
     
     private final String completer;
 
+    private final TypeConverter<?> converter;
+
+    private final int slot;
+
     /**
      * Create an OptionMetaData.
      * 
      * @param names the name of the mapping along with any aliases
      * @param type the parameter type
      * @param optional true if optional
+     * @param converter the TypeConverter for the parameter type
+     * @param slot index of this option's value in {@link ParsedArgs}. Must be
+     *   unique within the command.
      */
-    public OptionMetaData(String[] names, String valueName, Class<?> type, boolean optional, boolean nullable, String completer) {
+    public OptionMetaData(String[] names, String valueName, Class<?> type, boolean optional, boolean nullable, String completer, TypeConverter<?> converter, int slot) {
         if (names == null || names.length == 0)
             throw new IllegalArgumentException("names must be given");
         if (!hasText(valueName))
@@ -56,6 +63,10 @@ final class OptionMetaData implements MethodParameter {
             throw new IllegalArgumentException("type cannot be null");
         if (!hasText(completer))
             completer = null;
+        if (converter == null)
+            throw new IllegalArgumentException("converter cannot be null");
+        if (slot < 0)
+            throw new IllegalArgumentException("slot must be non-negative");
 
         this.names = Arrays.copyOf(names, names.length);
         this.valueName = valueName;
@@ -63,6 +74,8 @@ final class OptionMetaData implements MethodParameter {
         this.optional = optional;
         this.nullable = nullable;
         this.completer = completer;
+        this.converter = converter;
+        this.slot = slot;
     }
 
     /**
@@ -147,4 +160,22 @@ final class OptionMetaData implements MethodParameter {
         return completer;
     }
 
+    /**
+     * Returns the TypeConverter for the option's type.
+     * 
+     * @return the TypeConverter
+     */
+    public TypeConverter<?> getConverter() {
+        return converter;
+    }
+
+    /**
+     * Returns the index of this option's value within its command.
+     * 
+     * @return the slot index
+     */
+    public int getSlot() {
+        return slot;
+    }
+
 }
@@ -15,42 +15,32 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
-import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
-
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
 
 /**
  * Convenience class to parse a command's arguments and store the results.
  * 
+ * <p>Parsed values are stored in slots (see {@link OptionMetaData#getSlot()})
+ * and unparsed arguments are kept as a range of the original arguments array,
+ * so an instance may be re-used to parse each level of a sub-command chain.
+ * 
  * @author zerothangel
  */
 final class ParsedArgs {
 
-    private final Map<String, String> options = new HashMap<>();
+    private static final String[] EMPTY = new String[0];
 
-    private String[] rest = new String[0];
+    private String[] values = EMPTY;
 
-    private OptionMetaData unparsedArgument = null;
+    private String[] args = EMPTY;
 
-    private boolean parsedPositional = false;
+    private int restStart;
 
-    private boolean parsed = false;
+    private int end;
 
-    // Return the OptionMetaData with the given name (usually a flag)
-    private static OptionMetaData getOption(String flag, List<OptionMetaData> options) {
-        for (OptionMetaData omd : options) {
-            for (String name : omd.getNames()) {
-                if (flag.equals(name)) {
-                    return omd;
-                }
-            }
-        }
-        return null;
-    }
+    private OptionMetaData unparsedArgument = null;
+
+    private boolean parsedPositional = false;
 
     /**
      * Parse command arguments according to the given CommandMetaData.
@@ -60,20 +50,41 @@ final class ParsedArgs {
      * @return 
      */
     public void parse(CommandMetaData cmd, String[] args) {
+        parse(cmd, args, 0, args != null ? args.length : 0);
+    }
+
+    /**
+     * Parse a range of command arguments according to the given
+     * CommandMetaData. Any previously parsed state is discarded.
+     * 
+     * @param cmd the CommandMetaData
+     * @param args the arguments array
+     * @param start index of the first argument to parse
+     * @param end index after the last argument to parse
+     */
+    public void parse(CommandMetaData cmd, String[] args, int start, int end) {
         if (cmd == null)
             throw new IllegalArgumentException("cmd cannot be null");
 
         if (args == null)
-            args = new String[0];
-
-        if (parsed)
-            throw new IllegalStateException("parse already called");
-        parsed = true;
-
-        int pos = 0;
+            args = EMPTY;
+
+        // Reset state
+        int optionCount = cmd.getOptionCount();
+        if (values.length < optionCount)
+            values = new String[optionCount];
+        else
+            Arrays.fill(values, 0, optionCount, null);
+        this.args = args;
+        this.end = end;
+        restStart = end;
+        unparsedArgument = null;
+        parsedPositional = false;
+
+        int pos = start;
         
         // Parse flags
-        while (pos < args.length) {
+        while (pos < end) {
             String arg = args[pos];
             if ("--".equals(arg)) {
                 // explicit end of flags
@@ -85,41 +96,35 @@ final class ParsedArgs {
                 // positional argument
                 break;
             }
-            else {
-                List<String> flags = new LinkedList<>();
-
-                String flagArg = arg.substring(1);
-                if (!flagArg.startsWith("-")) {
-                    // Not a long flag, break it up
-                    for (char c : flagArg.toCharArray()) {
-                        flags.add("-" + Character.toString(c));
-                    }
+            else if (arg.startsWith("--")) {
+                // Long flag, use as-is
+                OptionMetaData omd = cmd.getLongFlag(arg);
+                if (omd == null) {
+                    // Unknown option
+                    throw new UnknownFlagException(arg);
                 }
-                else {
-                    // Use long flag as-is
-                    flags.add(arg);
+                int next = parseFlag(omd, pos);
+                if (next < 0) {
+                    // Premature end
+                    throw new MissingValueException(omd, arg);
                 }
-
-                for (String flag : flags) {
-                    OptionMetaData omd = getOption(flag, cmd.getFlagOptions());
+                pos = next + 1;
+            }
+            else {
+                // Not a long flag, break it up
+                for (int i = 1; i < arg.length(); i++) {
+                    char c = arg.charAt(i);
+                    OptionMetaData omd = cmd.getShortFlag(c);
                     if (omd == null) {
                         // Unknown option
-                        throw new UnknownFlagException(flag);
+                        throw new UnknownFlagException("-" + c);
                     }
-                    // Special handling of Boolean and boolean
-                    if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE) {
-                        options.put(omd.getName(), ""); // value doesn't matter, only existence
-                    }
-                    else {
-                        // Get value
-                        pos++;
-                        if (pos >= args.length) {
-                            // Premature end
-                            throw new MissingValueException(omd, flag);
-                        }
-
-                        options.put(omd.getName(), args[pos]);
+                    int next = parseFlag(omd, pos);
+                    if (next < 0) {
+                        // Premature end
+                        throw new MissingValueException(omd, "-" + c);
                     }
+                    pos = next;
                 }
                 pos++;
             }
@@ -128,7 +133,7 @@ final class ParsedArgs {
         // Parse positional args
         for (OptionMetaData omd : cmd.getPositionalArguments()) {
             if (!omd.isOptional()) {
-                if (pos >= args.length) {
+                if (pos >= end) {
                     if (omd.isNullable()) {
                         // NB: No exception will be thrown and rest of arguments
                         // will be unset. Use with care.
@@ -141,55 +146,91 @@ final class ParsedArgs {
                     }
                 }
                 else {
-                    options.put(omd.getName(), args[pos++]);
+                    values[omd.getSlot()] = args[pos++];
                     parsedPositional = true;
                 }
             }
             else {
-                if (pos >= args.length) {
+                if (pos >= end) {
                     // No more args, this and the rest should be optional
                     unparsedArgument = omd;
                     break;
                 }
                 else {
-                    options.put(omd.getName(), args[pos++]);
+                    values[omd.getSlot()] = args[pos++];
                     parsedPositional = true;
                 }
             }
         }
 
-        rest = Arrays.copyOfRange(args, pos, args.length);
+        restStart = pos;
+    }
+
+    // Store a flag's value, consuming the next argument if the flag takes a
+    // value. Returns the new position, or -1 if the value is missing.
+    private int parseFlag(OptionMetaData omd, int pos) {
+        // Special handling of Boolean and boolean
+        if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE) {
+            values[omd.getSlot()] = ""; // value doesn't matter, only existence
+        }
+        else {
+            // Get value
+            pos++;
+            if (pos >= end)
+                return -1;
+
+            values[omd.getSlot()] = args[pos];
+        }
+        return pos;
     }
 
     /**
      * Retrieve associated value for an option.
      * 
-     * @param name the option name
-     * @return the associated String value
+     * @param omd the option
+     * @return the associated String value, or null if not given
      */
-    public String getOption(String name) {
-        if (!hasText(name))
-            throw new IllegalArgumentException("name must have a value");
-
-        return options.get(name);
+    public String getOption(OptionMetaData omd) {
+        return values[omd.getSlot()];
     }
 
     /**
-     * Retrieve option map.
+     * Returns whether or not a value (or flag) was given for an option.
      * 
-     * @return the option map
+     * @param omd the option
+     * @return true if present
      */
-    public Map<String, String> getOptions() {
-        return options;
+    public boolean hasOption(OptionMetaData omd) {
+        return values[omd.getSlot()] != null;
     }
 
     /**
-     * Retrieve unparsed positional parameters.
+     * Retrieve unparsed positional parameters. A new array is created on
+     * each call.
      * 
      * @return unparsed positional parameters
      */
     public String[] getRest() {
-        return rest;
+        return Arrays.copyOfRange(args, restStart, end);
+    }
+
+    /**
+     * Retrieve the index of the first unparsed positional parameter within
+     * the original arguments array.
+     * 
+     * @return index of the first unparsed positional parameter
+     */
+    public int getRestStart() {
+        return restStart;
+    }
+
+    /**
+     * Retrieve the number of unparsed positional parameters.
+     * 
+     * @return number of unparsed positional parameters
+     */
+    public int getRestLength() {
+        return end - restStart;
     }
 
     /**
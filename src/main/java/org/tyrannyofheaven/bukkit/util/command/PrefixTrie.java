@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prefix trie of names, matched case-insensitively. Names keep their original
+ * case, so names differing only by case are distinct entries. Each node keeps
+ * a sorted list of every name beneath it, so a prefix query costs the length
+ * of the prefix and returns an already-sorted result.
+ * 
+ * @author zerothangel
+ */
+final class PrefixTrie {
+
+    private final Node root = new Node();
+
+    private final Set<String> names = new HashSet<>();
+
+    /**
+     * Add a name to the trie. Adding an existing name has no effect.
+     * 
+     * @param name the name to add
+     */
+    void add(String name) {
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (!names.add(name)) return;
+
+        Node node = root;
+        node.insert(name);
+        for (int i = 0; i < name.length(); i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+            }
+            node = child;
+            node.insert(name);
+        }
+    }
+
+    /**
+     * Returns whether or not the trie contains the given name. Case matters.
+     * 
+     * @param name the name
+     * @return true if present
+     */
+    boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Retrieve all names starting with the given prefix (ignoring case).
+     * 
+     * @param prefix the prefix. May be empty.
+     * @return unmodifiable, sorted list of matching names
+     */
+    List<String> getMatches(String prefix) {
+        Node node = find(prefix);
+        if (node == null)
+            return Collections.emptyList();
+        return node.view;
+    }
+
+    // Locate the node for the given string, or null if there is none
+    private Node find(String s) {
+        Node node = root;
+        for (int i = 0; i < s.length() && node != null; i++) {
+            node = node.children.get(Character.toLowerCase(s.charAt(i)));
+        }
+        return node;
+    }
+
+    private static class Node {
+
+        private final Map<Character, Node> children = new HashMap<>();
+
+        private final List<String> names = new ArrayList<>();
+
+        private final List<String> view = Collections.unmodifiableList(names);
+
+        // Insert a name, keeping the list sorted
+        private void insert(String name) {
+            int index = Collections.binarySearch(names, name, String.CASE_INSENSITIVE_ORDER);
+            if (index < 0)
+                index = -(index + 1);
+            names.add(index, name);
+        }
+
+    }
+
+}
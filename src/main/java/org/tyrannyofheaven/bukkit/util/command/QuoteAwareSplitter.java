@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Re-splits arguments (as already split on spaces by Bukkit) so that quoted
+ * strings and escape sequences are respected. Works directly over the
+ * original arguments, treating each boundary between them as a single
+ * space. Arguments that need no processing are passed through as-is.
+ * 
+ * @author zerothangel
+ */
+final class QuoteAwareSplitter {
+
+    private final List<String> result;
+
+    private final StringBuilder current = new StringBuilder();
+
+    private SplitState state = SplitState.NORMAL;
+
+    private QuoteAwareSplitter(int capacity) {
+        result = new ArrayList<>(capacity);
+    }
+
+    /**
+     * Split command arguments.
+     * 
+     * @param args the original arguments
+     * @return the split arguments. May be args itself if no splitting was
+     *   needed.
+     * @throws ParseException if a quote is unterminated
+     */
+    static String[] split(String[] args) {
+        if (isPlain(args, args.length))
+            return args;
+
+        QuoteAwareSplitter splitter = new QuoteAwareSplitter(args.length);
+        splitter.split(args, args.length, true);
+        return splitter.result.toArray(new String[splitter.result.size()]);
+    }
+
+    /**
+     * Split tab-completion arguments. The last argument (the query) is left
+     * untouched and remains the last argument.
+     * 
+     * @param args the original arguments
+     * @return the split arguments, ending with the query. May be args itself
+     *   if no splitting was needed.
+     */
+    static String[] splitForCompletion(String[] args) {
+        if (args.length == 0)
+            return new String[] { "" };
+
+        int end = args.length - 1;
+        if (isPlain(args, end))
+            return args;
+
+        QuoteAwareSplitter splitter = new QuoteAwareSplitter(args.length);
+        splitter.split(args, end, false);
+        splitter.result.add(args[end]);
+        return splitter.result.toArray(new String[splitter.result.size()]);
+    }
+
+    // Returns true if the first end arguments would split to themselves
+    private static boolean isPlain(String[] args, int end) {
+        for (int i = 0; i < end; i++) {
+            if (args[i].isEmpty() || !isPlain(args[i]))
+                return false;
+        }
+        return true;
+    }
+
+    // Returns true if arg has no quotes, escapes or whitespace
+    private static boolean isPlain(String arg) {
+        for (int i = 0; i < arg.length(); i++) {
+            char c = arg.charAt(i);
+            if (c == '"' || c == '\\' || Character.isWhitespace(c))
+                return false;
+        }
+        return true;
+    }
+
+    private void split(String[] args, int end, boolean complete) {
+        for (int i = 0; i < end; i++) {
+            if (i > 0)
+                process(' ');
+
+            String arg = args[i];
+            if (state == SplitState.NORMAL && current.length() == 0 && isPlain(arg)) {
+                // Whole token, pass through as-is
+                if (!arg.isEmpty())
+                    result.add(arg);
+            }
+            else {
+                for (int j = 0; j < arg.length(); j++) {
+                    process(arg.charAt(j));
+                }
+            }
+        }
+
+        // Throw if quote isn't terminated. Note we don't really care about unfinished escape sequences.
+        if (complete && (state == SplitState.QUOTED || state == SplitState.QUOTED_ESCAPED))
+            throw new ParseException("Unterminated quote");
+
+        if (state == SplitState.ESCAPED)
+            current.append('\\');
+
+        // Check final token
+        endToken();
+    }
+
+    private void process(char c) {
+        switch (state) {
+        case NORMAL:
+            if (c == '\\') {
+                // Start of escape sequence
+                state = SplitState.ESCAPED;
+            }
+            else if (c == '"') {
+                // Open quotes
+                state = SplitState.QUOTED;
+            }
+            else if (Character.isWhitespace(c)) {
+                // End of token, if any. Leading white spaces are skipped.
+                endToken();
+            }
+            else {
+                current.append(c);
+            }
+            break;
+        case ESCAPED:
+        case QUOTED_ESCAPED:
+            if (c == '\\') {
+                current.append('\\');
+            }
+            else if (c == '"') {
+                current.append('"');
+            }
+            else {
+                // Not a valid escape
+                current.append('\\');
+                current.append(c);
+            }
+            state = state == SplitState.ESCAPED ? SplitState.NORMAL : SplitState.QUOTED;
+            break;
+        case QUOTED:
+            if (c == '\\') {
+                state = SplitState.QUOTED_ESCAPED;
+            }
+            else if (c == '"') {
+                // Close quotes
+                state = SplitState.NORMAL;
+            }
+            else {
+                // Append unconditionally
+                current.append(c);
+            }
+            break;
+        default:
+            throw new AssertionError("Unhandled SplitState." + state);
+        }
+    }
+
+    private void endToken() {
+        if (current.length() > 0) {
+            result.add(current.toString());
+            current.setLength(0);
+        }
+    }
+
+    private static enum SplitState {
+        NORMAL, ESCAPED, QUOTED, QUOTED_ESCAPED;
+    }
+
+}
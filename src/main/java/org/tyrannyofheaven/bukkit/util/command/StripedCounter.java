@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread across several cells so that concurrent updates from
+ * different threads rarely contend. Reads sum all cells.
+ * 
+ * @author zerothangel
+ */
+final class StripedCounter {
+
+    private static final int STRIPES = stripes();
+
+    // Cells are spaced apart to keep them on separate cache lines
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    private static int stripes() {
+        int n = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(1, n - 1) << 1); // next power of 2
+    }
+
+    private static int index() {
+        return ((int)Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+    }
+
+    void add(long x) {
+        cells.addAndGet(index(), x);
+    }
+
+    void increment() {
+        cells.incrementAndGet(index());
+    }
+
+    long sum() {
+        long sum = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0L);
+        }
+    }
+
+}
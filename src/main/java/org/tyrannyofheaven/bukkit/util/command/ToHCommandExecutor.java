@@ -21,12 +21,11 @@ import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.sendMessage;
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
 import static org.tyrannyofheaven.bukkit.util.command.reader.CommandReader.abortBatchProcessing;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
@@ -46,20 +45,35 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
 
     private final T plugin;
 
-    private final HandlerExecutor<T> rootHandlerExecutor;
+    private final Object[] handlers;
+
+    private volatile HandlerExecutor<T> rootHandlerExecutor;
+
+    // Set if processing the handler objects failed. Processing is not retried.
+    private volatile RuntimeException processingFailure;
 
     private UsageOptions usageOptions = new DefaultUsageOptions();
 
     private final Map<String, TypeCompleter> typeCompleterRegistry = new HashMap<>();
 
+    private final Map<Class<?>, TypeConverter<?>> typeConverterRegistry = TypeConverters.newRegistry();
+
+    private boolean compiledInvocation = false;
+
     private boolean quoteAware = false;
 
+    private CompletionCache completionCache;
+
+    private volatile CommandMetrics commandMetrics;
+
     private CommandExceptionHandler exceptionHandler;
 
     private String verbosePermissionErrorPermission;
 
     /**
-     * Create an instance.
+     * Create an instance. The handler objects are not processed until
+     * commands are registered (or first executed), so TypeConverters for
+     * custom parameter types may be registered beforehand.
      * 
      * @param plugin the associated plugin
      * @param handlers the handler objects
@@ -69,20 +83,47 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
             throw new IllegalArgumentException("plugin cannot be null");
 
         this.plugin = plugin;
+        this.handlers = handlers;
 
-        rootHandlerExecutor = new HandlerExecutor<>(plugin, usageOptions, handlers);
-        
         // Register default TypeCompleters
         registerTypeCompleter("constant", new ConstantTypeCompleter());
         registerTypeCompleter("player", new PlayerTypeCompleter());
         registerTypeCompleter("world", new WorldTypeCompleter());
     }
 
+    // Retrieve the root HandlerExecutor, processing the handler objects if
+    // this hasn't been done yet. If processing fails, the failure is thrown
+    // once and null is returned thereafter.
+    private HandlerExecutor<T> getRootHandlerExecutor() {
+        HandlerExecutor<T> he = rootHandlerExecutor;
+        if (he == null) {
+            synchronized (this) {
+                he = rootHandlerExecutor;
+                if (he == null && processingFailure == null) {
+                    try {
+                        he = new HandlerExecutor<>(plugin, usageOptions, typeConverterRegistry, handlers);
+                    }
+                    catch (RuntimeException e) {
+                        processingFailure = e;
+                        throw e;
+                    }
+                    he.setCompiledInvocation(compiledInvocation);
+                    rootHandlerExecutor = he;
+                }
+            }
+        }
+        return he;
+    }
+
     /**
-     * Register top-level commands with the server.
+     * Register top-level commands with the server. Any error in the handler
+     * objects is thrown from here.
      */
     public void registerCommands() {
-        rootHandlerExecutor.registerCommands(this);
+        HandlerExecutor<T> he = getRootHandlerExecutor();
+        if (he == null)
+            throw processingFailure;
+        he.registerCommands(this);
     }
 
     public ToHCommandExecutor<T> registerTypeCompleter(String name, TypeCompleter typeCompleter) {
@@ -95,6 +136,27 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         return this;
     }
 
+    /**
+     * Register a TypeConverter for a custom @Option parameter type. Must be
+     * called before commands are registered.
+     * 
+     * @param type the parameter type. Primitive types and their wrappers are
+     *   distinct types.
+     * @param typeConverter the TypeConverter
+     * @return this ToHCommandExecutor
+     */
+    public synchronized <C> ToHCommandExecutor<T> registerTypeConverter(Class<C> type, TypeConverter<? extends C> typeConverter) {
+        if (type == null)
+            throw new IllegalArgumentException("type cannot be null");
+        if (typeConverter == null)
+            throw new IllegalArgumentException("typeConverter cannot be null");
+        if (rootHandlerExecutor != null)
+            throw new IllegalStateException("Handlers have already been processed");
+
+        typeConverterRegistry.put(type, typeConverter);
+        return this;
+    }
+
     public ToHCommandExecutor<T> setUsageOptions(UsageOptions usageOptions) {
         if (usageOptions == null)
             throw new IllegalArgumentException("usageOptions cannot be null");
@@ -108,6 +170,67 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         return this;
     }
 
+    /**
+     * Invoke command handler methods through MethodHandles bound at
+     * registration time rather than through reflection. Methods that could
+     * not be bound are still invoked reflectively.
+     * 
+     * @param compiledInvocation true to use bound MethodHandles
+     * @return this ToHCommandExecutor
+     */
+    public synchronized ToHCommandExecutor<T> setCompiledInvocation(boolean compiledInvocation) {
+        this.compiledInvocation = compiledInvocation;
+        if (rootHandlerExecutor != null)
+            rootHandlerExecutor.setCompiledInvocation(compiledInvocation);
+        return this;
+    }
+
+    /**
+     * Remember each sender's last tab-completion result so that extending
+     * the previous query narrows it instead of recomputing it. Results are
+     * forgotten when the player quits. Permissions are not re-checked while
+     * narrowing, so keep the TTL short.
+     * 
+     * @param maxSize maximum number of senders to remember
+     * @param ttl how long to remember a result
+     * @param unit unit of ttl
+     * @return this ToHCommandExecutor
+     */
+    public ToHCommandExecutor<T> setCompletionCache(int maxSize, long ttl, TimeUnit unit) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive");
+        if (unit == null)
+            throw new IllegalArgumentException("unit cannot be null");
+        if (completionCache != null)
+            throw new IllegalStateException("Completion cache already set");
+
+        completionCache = new CompletionCache(maxSize, ttl, unit);
+        plugin.getServer().getPluginManager().registerEvents(completionCache, plugin);
+        return this;
+    }
+
+    /**
+     * Record execution statistics of each command path into the given
+     * CommandMetrics. See {@link CommandMetricsHandler} for a command to
+     * display them.
+     * 
+     * @param commandMetrics the CommandMetrics, or null to stop recording
+     * @return this ToHCommandExecutor
+     */
+    public ToHCommandExecutor<T> setCommandMetrics(CommandMetrics commandMetrics) {
+        this.commandMetrics = commandMetrics;
+        return this;
+    }
+
+    /**
+     * Returns the CommandMetrics being recorded into, if any.
+     * 
+     * @return the CommandMetrics, or null
+     */
+    public CommandMetrics getCommandMetrics() {
+        return commandMetrics;
+    }
+
     public ToHCommandExecutor<T> setExceptionHandler(CommandExceptionHandler exceptionHandler) {
         this.exceptionHandler = exceptionHandler;
         return this;
@@ -124,23 +247,36 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         InvocationChain invChain = new InvocationChain();
+        CommandMetrics metrics = commandMetrics;
+        long start = metrics != null ? System.nanoTime() : 0L;
+        CommandMetrics.Outcome outcome = CommandMetrics.Outcome.EXCEPTION;
 
         try {
             if (quoteAware)
-                args = split(ToHStringUtils.delimitedString(" ", (Object[])args), true);
+                args = QuoteAwareSplitter.split(args);
 
             // NB: We use command.getName() rather than label. This allows the
             // user to freely add aliases by editing plugin.yml. However,
             // this also makes aliases in @Command mostly useless.
-            rootHandlerExecutor.execute(sender, command.getName(), label, args, invChain, new CommandSession());
+            HandlerExecutor<T> he = getRootHandlerExecutor();
+            if (he == null) {
+                // Already reported
+                sendMessage(sender, ChatColor.RED + "Plugin error; see server log.");
+                abortBatchProcessing();
+                return true;
+            }
+            he.execute(sender, command.getName(), label, args, invChain, new CommandSession());
+            outcome = CommandMetrics.Outcome.SUCCESS;
             return true;
         }
         catch (PermissionException e) {
+            outcome = CommandMetrics.Outcome.PERMISSION_DENIED;
             displayPermissionException(sender, e);
             abortBatchProcessing();
             return true;
         }
         catch (ParseException e) {
+            outcome = CommandMetrics.Outcome.PARSE_FAILURE;
             // Show message if one was given
             if (hasText(e.getMessage()))
                 sendMessage(sender, "%s%s", ChatColor.RED, e.getMessage());
@@ -163,32 +299,32 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
             abortBatchProcessing();
             return true;
         }
+        finally {
+            if (metrics != null)
+                metrics.record(invChain.getPath(command.getName()), System.nanoTime() - start, outcome);
+        }
     }
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
-        if (quoteAware) {
-            // Isolate query argument (last argument)
-            String query;
-            String[] argsNoQuery;
-            if (args.length > 0) {
-                // Have at least one
-                query = args[args.length - 1];
-                argsNoQuery = Arrays.copyOfRange(args, 0, args.length - 1);
-            }
-            else {
-                query = "";
-                argsNoQuery = args;
-            }
-
-            args = split(ToHStringUtils.delimitedString(" ", (Object[])argsNoQuery), false);
-            // Extend and add query
-            args = Arrays.copyOfRange(args, 0, args.length + 1);
-            args[args.length - 1] = query;
+        if (quoteAware)
+            args = QuoteAwareSplitter.splitForCompletion(args);
+
+        CompletionCache cache = completionCache;
+        if (cache != null) {
+            List<String> result = cache.get(sender, command.getName(), args);
+            if (result != null)
+                return result;
         }
 
         try {
-            return rootHandlerExecutor.getTabCompletions(sender, command.getName(), alias, args, null, null, typeCompleterRegistry);
+            HandlerExecutor<T> he = getRootHandlerExecutor();
+            if (he == null)
+                return Collections.emptyList(); // Already reported
+            List<String> result = he.getTabCompletions(sender, command.getName(), alias, args, null, null, typeCompleterRegistry);
+            if (cache != null)
+                cache.put(sender, command.getName(), args, result);
+            return result;
         }
         catch (PermissionException e) {
             displayPermissionException(sender, e);
@@ -218,90 +354,4 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         }
     }
 
-    private String[] split(String input, boolean complete) {
-        List<String> result = new ArrayList<>();
-
-        SplitState state = SplitState.NORMAL;
-        StringBuilder current = new StringBuilder();
-
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
-
-            switch (state) {
-            case NORMAL:
-                if (c == '\\') {
-                    // Start of escape sequence
-                    state = SplitState.ESCAPED;
-                }
-                else if (c == '"') {
-                    // Open quotes
-                    state = SplitState.QUOTED;
-                }
-                else {
-                    if (current.length() == 0) {
-                        // Current token empty, skip leading white spaces
-                        if (!Character.isWhitespace(c))
-                            current.append(c);
-                    }
-                    else if (Character.isWhitespace(c)) {
-                        // End of token
-                        result.add(current.toString());
-                        current = new StringBuilder();
-                    }
-                    else {
-                        current.append(c);
-                    }
-                }
-                break;
-            case ESCAPED:
-            case QUOTED_ESCAPED:
-                if (c == '\\') {
-                    current.append('\\');
-                }
-                else if (c == '"') {
-                    current.append('"');
-                }
-                else {
-                    // Not a valid escape
-                    current.append('\\');
-                    current.append(c);
-                }
-                state = state == SplitState.ESCAPED ? SplitState.NORMAL : SplitState.QUOTED;
-                break;
-            case QUOTED:
-                if (c == '\\') {
-                    state = SplitState.QUOTED_ESCAPED;
-                }
-                else if (c == '"') {
-                    // Close quotes
-                    state = SplitState.NORMAL;
-                }
-                else {
-                    // Append unconditionally
-                    current.append(c);
-                }
-                break;
-            default:
-                throw new AssertionError("Unhandled SplitState." + state);
-            }
-        }
-
-        // Throw if quote isn't terminated. Note we don't really care about unfinished escape sequences.
-        if (complete && (state == SplitState.QUOTED || state == SplitState.QUOTED_ESCAPED))
-            throw new ParseException("Unterminated quote");
-
-        if (state == SplitState.ESCAPED)
-            current.append('\\');
-
-        // Check final token
-        if (current.length() > 0)
-            result.add(current.toString());
-
-        return result.toArray(new String[result.size()]);
-    }
-
-    private static enum SplitState {
-        NORMAL, ESCAPED, QUOTED, QUOTED_ESCAPED;
-    }
-
 }
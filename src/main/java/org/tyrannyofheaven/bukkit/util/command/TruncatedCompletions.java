@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Completions that a {@link TypeCompleter} had to cut short, e.g. to stay
+ * within a limit on the number of results. TypeCompleters return this
+ * instead of a plain List so that the incomplete result is never narrowed
+ * to answer a longer query; narrowing would omit the values that were cut
+ * off.
+ * 
+ * @author zerothangel
+ */
+public class TruncatedCompletions extends ArrayList<String> {
+
+    private static final long serialVersionUID = -3175870462517452312L;
+
+    public TruncatedCompletions() {
+    }
+
+    public TruncatedCompletions(Collection<String> completions) {
+        super(completions);
+    }
+
+}
@@ -33,7 +33,7 @@ public interface TypeCompleter {
      * @param arg the argument. May be null.
      * @param sender TODO
      * @param partial start of string to match for completion. May be empty, never null.
-     * @return
+     * @return possible values. A {@link TruncatedCompletions} if some values were left out.
      */
     public List<String> complete(Class<?> clazz, String arg, CommandSender sender, String partial);
 
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+/**
+ * Converts the text of an argument or flag value into a method parameter
+ * value. Converters are looked up by parameter type when handler objects are
+ * processed, so a given @Option parameter always uses the same converter.
+ * 
+ * @author zerothangel
+ *
+ * @param <T> the converted type
+ */
+public interface TypeConverter<T> {
+
+    /**
+     * Convert the given text.
+     * 
+     * @param text the text to convert. Never null.
+     * @return the converted value
+     * @throws IllegalArgumentException if the text cannot be converted
+     */
+    public T convert(String text);
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Built-in TypeConverters for String and the primitive types.
+ * 
+ * @author zerothangel
+ */
+final class TypeConverters {
+
+    private static final TypeConverter<String> STRING = new TypeConverter<String>() {
+        @Override
+        public String convert(String text) {
+            return text;
+        }
+    };
+
+    private static final TypeConverter<Boolean> BOOLEAN = new TypeConverter<Boolean>() {
+        // A little more friendlier than Boolean.valueOf(String)
+        @Override
+        public Boolean convert(String text) {
+            text = text.trim().toLowerCase();
+            if ("true".equals(text) || "t".equals(text) || "yes".equals(text) || "y".equals(text) || "on".equals(text))
+                return Boolean.TRUE;
+            else if ("false".equals(text) || "f".equals(text) || "no".equals(text) || "n".equals(text) || "off".equals(text))
+                return Boolean.FALSE;
+            else
+                throw new IllegalArgumentException("Cannot convert string to boolean");
+        }
+    };
+
+    private static final TypeConverter<Byte> BYTE = new TypeConverter<Byte>() {
+        @Override
+        public Byte convert(String text) {
+            return Byte.valueOf(Byte.parseByte(text));
+        }
+    };
+
+    private static final TypeConverter<Short> SHORT = new TypeConverter<Short>() {
+        @Override
+        public Short convert(String text) {
+            return Short.valueOf(Short.parseShort(text));
+        }
+    };
+
+    private static final TypeConverter<Integer> INTEGER = new TypeConverter<Integer>() {
+        @Override
+        public Integer convert(String text) {
+            return Integer.valueOf(Integer.parseInt(text));
+        }
+    };
+
+    private static final TypeConverter<Long> LONG = new TypeConverter<Long>() {
+        @Override
+        public Long convert(String text) {
+            return Long.valueOf(Long.parseLong(text));
+        }
+    };
+
+    private static final TypeConverter<Float> FLOAT = new TypeConverter<Float>() {
+        @Override
+        public Float convert(String text) {
+            return Float.valueOf(Float.parseFloat(text));
+        }
+    };
+
+    private static final TypeConverter<Double> DOUBLE = new TypeConverter<Double>() {
+        @Override
+        public Double convert(String text) {
+            return Double.valueOf(Double.parseDouble(text));
+        }
+    };
+
+    private TypeConverters() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Create a new TypeConverter registry populated with the built-in
+     * converters.
+     * 
+     * @return a new, modifiable registry
+     */
+    static Map<Class<?>, TypeConverter<?>> newRegistry() {
+        Map<Class<?>, TypeConverter<?>> registry = new HashMap<>();
+        registry.put(String.class, STRING);
+        registry.put(Boolean.TYPE, BOOLEAN);
+        registry.put(Boolean.class, BOOLEAN);
+        registry.put(Byte.TYPE, BYTE);
+        registry.put(Byte.class, BYTE);
+        registry.put(Short.TYPE, SHORT);
+        registry.put(Short.class, SHORT);
+        registry.put(Integer.TYPE, INTEGER);
+        registry.put(Integer.class, INTEGER);
+        registry.put(Long.TYPE, LONG);
+        registry.put(Long.class, LONG);
+        registry.put(Float.TYPE, FLOAT);
+        registry.put(Float.class, FLOAT);
+        registry.put(Double.TYPE, DOUBLE);
+        registry.put(Double.class, DOUBLE);
+        return registry;
+    }
+
+}
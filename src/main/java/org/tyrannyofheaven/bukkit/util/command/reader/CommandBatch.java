@@ -0,0 +1,213 @@
+/*
+ * Copyright 2026 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command.reader;
+
+import static org.tyrannyofheaven.bukkit.util.ToHLoggingUtils.error;
+import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.colorize;
+import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.sendMessage;
+
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.tyrannyofheaven.bukkit.util.command.reader.CommandReader.CommandCall;
+
+/**
+ * Handle to a batch of commands being executed across several server ticks.
+ * See {@link CommandReader#readScheduled(Plugin, CommandSender, java.io.InputStream, boolean, long, java.util.concurrent.TimeUnit, Plugin...)}.
+ * 
+ * @author zerothangel
+ */
+public final class CommandBatch {
+
+    // Number of progress reports over the course of the batch
+    private static final int PROGRESS_STEPS = 10;
+
+    private final Plugin plugin;
+
+    private final CommandSender sender;
+
+    private final List<CommandCall> calls;
+
+    private final boolean echo;
+
+    private final long budget;
+
+    private BukkitTask task;
+
+    private volatile int executed;
+
+    private int nextProgress;
+
+    private volatile State state = State.RUNNING;
+
+    CommandBatch(Plugin plugin, CommandSender sender, List<CommandCall> calls, boolean echo, long budget) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.calls = calls;
+        this.echo = echo;
+        this.budget = budget;
+        this.nextProgress = progressStep();
+    }
+
+    void start() {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, new Runnable() {
+            @Override
+            public void run() {
+                tick();
+            }
+        }, 0L, 1L);
+    }
+
+    // Execute as many commands as the budget allows
+    private void tick() {
+        if (state != State.RUNNING) {
+            task.cancel();
+            return;
+        }
+
+        long start = System.nanoTime();
+        CommandReader.beginBatchProcessing();
+        try {
+            // At least one per tick, then as many as fit in the budget
+            do {
+                if (state != State.RUNNING) {
+                    // Cancelled by the last command
+                    return;
+                }
+                if (executed >= calls.size()) {
+                    finish(State.COMPLETED);
+                    return;
+                }
+                if (!CommandReader.execute(sender, calls.get(executed++), echo)) {
+                    finish(State.ABORTED);
+                    return;
+                }
+            }
+            while (System.nanoTime() - start < budget);
+        }
+        catch (Error e) {
+            finish(State.FAILED);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            finish(State.FAILED);
+            error(plugin, "Error executing batch command:", e);
+            return;
+        }
+        finally {
+            CommandReader.endBatchProcessing();
+        }
+
+        if (executed >= nextProgress && executed < calls.size()) {
+            sendMessage(sender, colorize("{GRAY}Executed %d of %d commands..."), executed, calls.size());
+            nextProgress = executed + progressStep();
+        }
+    }
+
+    private int progressStep() {
+        return Math.max(1, calls.size() / PROGRESS_STEPS);
+    }
+
+    private void finish(State state) {
+        this.state = state;
+        task.cancel();
+
+        switch (state) {
+        case COMPLETED:
+            sendMessage(sender, colorize("{YELLOW}Executed all %d commands."), calls.size());
+            break;
+        case ABORTED:
+            sendMessage(sender, colorize("{RED}Aborted after %d of %d commands."), executed, calls.size());
+            break;
+        case FAILED:
+            sendMessage(sender, colorize("{RED}Plugin error after %d of %d commands; see server log."), executed, calls.size());
+            break;
+        case CANCELLED:
+            sendMessage(sender, colorize("{YELLOW}Cancelled after %d of %d commands."), executed, calls.size());
+            break;
+        default:
+            throw new AssertionError("Unhandled State." + state);
+        }
+    }
+
+    /**
+     * Cancel the batch. Commands that have already been executed are not
+     * affected. Must be called from the main thread.
+     * 
+     * @return true if the batch was running
+     */
+    public boolean cancel() {
+        if (state != State.RUNNING)
+            return false;
+        finish(State.CANCELLED);
+        return true;
+    }
+
+    /**
+     * Returns the current state of the batch.
+     * 
+     * @return the State
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns whether or not the batch has finished, for any reason.
+     * 
+     * @return true if finished
+     */
+    public boolean isDone() {
+        return state != State.RUNNING;
+    }
+
+    /**
+     * Returns the number of commands executed so far.
+     * 
+     * @return number of executed commands
+     */
+    public int getExecutedCount() {
+        return executed;
+    }
+
+    /**
+     * Returns the total number of commands in the batch.
+     * 
+     * @return number of commands
+     */
+    public int getTotalCount() {
+        return calls.size();
+    }
+
+    /**
+     * State of a CommandBatch.
+     */
+    public static enum State {
+        /** Still executing commands. */
+        RUNNING,
+        /** All commands executed successfully. */
+        COMPLETED,
+        /** A command failed or aborted batch processing. */
+        ABORTED,
+        /** A command threw an exception. */
+        FAILED,
+        /** Cancelled through {@link CommandBatch#cancel()}. */
+        CANCELLED;
+    }
+
+}
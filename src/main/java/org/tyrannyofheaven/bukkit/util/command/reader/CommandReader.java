@@ -13,7 +13,10 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.bukkit.Server;
 import org.bukkit.command.Command;
@@ -21,6 +24,8 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
+import org.tyrannyofheaven.bukkit.util.transaction.TransactionCallbackWithoutResult;
+import org.tyrannyofheaven.bukkit.util.transaction.TransactionStrategy;
 
 /**
  * Utility class to read a file containing commands and execute them.
@@ -32,6 +37,8 @@ public class CommandReader {
     // Used to hold the batch processing abort flag
     private static final ThreadLocal<Boolean> abortFlags = new ThreadLocal<>();
 
+    private static final int STREAMING_BUFFER_SIZE = 64 * 1024;
+
     /**
      * Execute commands from a file. Commands will be echoed back to the sender.
      * 
@@ -108,78 +115,237 @@ public class CommandReader {
      * @throws IOException upon I/O error
      */
     public static boolean read(Server server, CommandSender sender, InputStream input, boolean echo, Plugin... plugins) throws IOException {
-        List<CommandCall> calls = new ArrayList<>();
+        List<CommandCall> calls = parse(server, input, plugins);
+        
+        // Set up abort flag
+        beginBatchProcessing();
 
-        // Read entire stream before executing anything
-        BufferedReader in = new BufferedReader(new InputStreamReader(input));
         try {
-            int lineNo = 0;
-            String line;
-            while ((line = in.readLine()) != null) {
-                lineNo++;
-                line = line.trim();
-                if (line.length() == 0 || line.startsWith("#")) {
-                    // Skip comments and blank lines
-                    continue;
-                }
-                
-                // Break up into args
-                String[] args = line.split(" ");
-
-                // Strip leading slash if present
-                String c = args[0].toLowerCase();
-                if (c.startsWith("/"))
-                    c = c.substring(1);
-                
-                Command command = getCommand(server, c, plugins);
-                if (command == null) {
-                    throw new CommandReaderException(String.format("Unknown command at line %d", lineNo));
-                }
-                
-                calls.add(new CommandCall(command, c, Arrays.copyOfRange(args, 1, args.length)));
+            // Execute each call
+            for (CommandCall call : calls) {
+                if (!execute(sender, call, echo))
+                    return false;
             }
         }
         finally {
-            in.close();
+            endBatchProcessing();
         }
-        
+
+        return true;
+    }
+
+    /**
+     * Execute commands from a stream within transactions. Commands are
+     * executed in chunks, each chunk within a single transaction. If a
+     * command fails or aborts batch processing, the current chunk is rolled
+     * back. Earlier chunks remain committed.
+     * 
+     * <p>For commands to take part in the chunk's transaction, any
+     * TransactionStrategy they use themselves must join existing
+     * transactions, e.g. an {@link org.tyrannyofheaven.bukkit.util.transaction.AvajeTransactionStrategy}
+     * created with <code>joinExisting</code>.
+     * 
+     * @param server the Server instance
+     * @param sender who to execute the commands as
+     * @param input InputStream for commands
+     * @param echo true if commands should be echoed back to sender
+     * @param transactionStrategy the TransactionStrategy to use
+     * @param chunkSize number of commands per transaction, or 0 to execute
+     *   all commands in a single transaction
+     * @param plugins Zero or more plugins to restrict the commands to
+     * @return true if all commands executed successfully
+     * @throws IOException upon I/O error
+     */
+    public static boolean read(Server server, final CommandSender sender, InputStream input, final boolean echo, TransactionStrategy transactionStrategy, int chunkSize, Plugin... plugins) throws IOException {
+        if (transactionStrategy == null)
+            throw new IllegalArgumentException("transactionStrategy cannot be null");
+        if (chunkSize < 0)
+            throw new IllegalArgumentException("chunkSize must be non-negative");
+
+        final List<CommandCall> calls = parse(server, input, plugins);
+        if (chunkSize == 0)
+            chunkSize = Math.max(1, calls.size());
+
         // Set up abort flag
-        abortFlags.set(Boolean.FALSE);
+        beginBatchProcessing();
 
         try {
-            // Execute each call
-            for (CommandCall call : calls) {
+            for (int start = 0; start < calls.size(); start += chunkSize) {
+                final List<CommandCall> chunk = calls.subList(start, Math.min(start + chunkSize, calls.size()));
                 try {
-                    if (echo) {
-                        sendMessage(sender, colorize("{GRAY}%s%s%s%s"),
-                                (sender instanceof Player ? "/" : ""),
-                                call.getAlias(),
-                                (call.getArgs().length > 0 ? " " : ""),
-                                delimitedString(" ", (Object[])call.getArgs()));
-                    }
-                    if (!call.getCommand().execute(sender, call.getAlias(), call.getArgs()))
-                        return false;
-                    
-                    // Check aborting
-                    if (abortFlags.get() != null && abortFlags.get())
-                        return false;
+                    transactionStrategy.execute(new TransactionCallbackWithoutResult() {
+                        @Override
+                        public void doInTransactionWithoutResult() throws Exception {
+                            for (CommandCall call : chunk) {
+                                if (!execute(sender, call, echo))
+                                    throw new BatchAbortedException(); // roll back
+                            }
+                        }
+                    });
                 }
-                catch (Error | RuntimeException e) {
-                    throw e;
+                catch (BatchAbortedException e) {
+                    return false;
                 }
-                catch (Throwable t) {
-                    throw new CommandReaderException(t);
+            }
+        }
+        finally {
+            endBatchProcessing();
+        }
+
+        return true;
+    }
+
+    /**
+     * Execute commands from a stream across several server ticks. At most
+     * <code>budget</code> time is spent executing commands each tick. The
+     * stream is read entirely before this method returns.
+     * 
+     * @param plugin the plugin to schedule execution with
+     * @param sender who to execute the commands as
+     * @param input InputStream for commands
+     * @param echo true if commands should be echoed back to sender
+     * @param budget time to spend executing commands per tick. At least one
+     *   command is executed each tick.
+     * @param unit unit of budget
+     * @param plugins Zero or more plugins to restrict the commands to
+     * @return handle to the running batch
+     * @throws IOException upon I/O error
+     */
+    public static CommandBatch readScheduled(Plugin plugin, CommandSender sender, InputStream input, boolean echo, long budget, TimeUnit unit, Plugin... plugins) throws IOException {
+        if (plugin == null)
+            throw new IllegalArgumentException("plugin cannot be null");
+        if (sender == null)
+            throw new IllegalArgumentException("sender cannot be null");
+        if (unit == null)
+            throw new IllegalArgumentException("unit cannot be null");
+
+        List<CommandCall> calls = parse(plugin.getServer(), input, plugins);
+
+        CommandBatch batch = new CommandBatch(plugin, sender, calls, echo, unit.toNanos(budget));
+        batch.start();
+        return batch;
+    }
+
+    /**
+     * Execute commands from a file without holding the entire file in
+     * memory. The file is read twice: once to check that all commands are
+     * known, then again to execute each line as it is read.
+     * 
+     * @param server the Server instance
+     * @param sender who to execute the commands as
+     * @param file the file to read commands from
+     * @param echo true if commands should be echoed back to sender
+     * @param plugins Zero or more plugins to restrict the commands to
+     * @return true if all commands executed successfully
+     * @throws IOException upon I/O error
+     */
+    public static boolean readStreaming(Server server, CommandSender sender, File file, boolean echo, Plugin... plugins) throws IOException {
+        CommandLookup lookup = new CommandLookup(server, plugins);
+
+        // First pass, only check that all commands are known
+        CommandParser parser = new CommandParser(openReader(file), lookup);
+        try {
+            while (parser.next() != null) {
+                // Nothing to do
+            }
+        }
+        finally {
+            parser.close();
+        }
+
+        // Second pass, execute as we go
+        parser = new CommandParser(openReader(file), lookup);
+        try {
+            // Set up abort flag
+            beginBatchProcessing();
+
+            try {
+                CommandCall call;
+                while ((call = parser.next()) != null) {
+                    if (!execute(sender, call, echo))
+                        return false;
                 }
             }
+            finally {
+                endBatchProcessing();
+            }
         }
         finally {
-            // Remove ThreadLocal to prevent memory leaks
-            abortFlags.remove();
+            parser.close();
         }
 
         return true;
     }
 
+    private static BufferedReader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file)), STREAMING_BUFFER_SIZE);
+    }
+
+    // Read entire stream and resolve each command
+    private static List<CommandCall> parse(Server server, InputStream input, Plugin... plugins) throws IOException {
+        List<CommandCall> calls = new ArrayList<>();
+
+        // Read entire stream before executing anything
+        CommandParser parser = new CommandParser(new BufferedReader(new InputStreamReader(input)), new CommandLookup(server, plugins));
+        try {
+            CommandCall call;
+            while ((call = parser.next()) != null) {
+                calls.add(call);
+            }
+        }
+        finally {
+            parser.close();
+        }
+
+        return calls;
+    }
+
+    // Lowercase and strip leading slash if present
+    private static String toCommandName(String arg) {
+        String c = arg.toLowerCase();
+        if (c.startsWith("/"))
+            c = c.substring(1);
+        return c;
+    }
+
+    // Execute a single call. Abort flag must already be set up. Returns false
+    // if the command failed or batch processing was aborted.
+    static boolean execute(CommandSender sender, CommandCall call, boolean echo) {
+        try {
+            if (echo) {
+                sendMessage(sender, colorize("{GRAY}%s%s%s%s"),
+                        (sender instanceof Player ? "/" : ""),
+                        call.getAlias(),
+                        (call.getArgs().length > 0 ? " " : ""),
+                        delimitedString(" ", (Object[])call.getArgs()));
+            }
+            if (!call.getCommand().execute(sender, call.getAlias(), call.getArgs()))
+                return false;
+            
+            // Check aborting
+            if (abortFlags.get() != null && abortFlags.get())
+                return false;
+        }
+        catch (Error | RuntimeException e) {
+            throw e;
+        }
+        catch (Throwable t) {
+            throw new CommandReaderException(t);
+        }
+        return true;
+    }
+
+    // Set up the abort flag for the current thread
+    static void beginBatchProcessing() {
+        abortFlags.set(Boolean.FALSE);
+    }
+
+    // Remove the abort flag for the current thread
+    static void endBatchProcessing() {
+        // Remove ThreadLocal to prevent memory leaks
+        abortFlags.remove();
+    }
+
     /**
      * May be called by command handlers to abort batch processing. Does nothing
      * if the handler was not called within {@link #read(Server, CommandSender, InputStream, boolean, Plugin...)}.
@@ -199,8 +365,88 @@ public class CommandReader {
         return abortFlags.get() != null;
     }
 
+    // Resolves command names, remembering the result of each name
+    private static class CommandLookup {
+
+        private final Server server;
+
+        private final Plugin[] plugins;
+
+        private final Map<String, Command> commands = new HashMap<>();
+
+        private CommandLookup(Server server, Plugin... plugins) {
+            this.server = server;
+            this.plugins = plugins;
+        }
+
+        // Returns null if unknown
+        private Command getCommand(String name) {
+            Command command = commands.get(name);
+            if (command == null && !commands.containsKey(name)) {
+                command = CommandReader.getCommand(server, name, plugins);
+                commands.put(name, command);
+            }
+            return command;
+        }
+
+    }
+
+    // Reads lines and resolves the command of each, skipping comments and
+    // blank lines
+    private static class CommandParser {
+
+        private final BufferedReader in;
+
+        private final CommandLookup lookup;
+
+        private int lineNo;
+
+        private CommandParser(BufferedReader in, CommandLookup lookup) {
+            this.in = in;
+            this.lookup = lookup;
+        }
+
+        // Returns the next call, or null at end of input
+        private CommandCall next() throws IOException {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    // Skip comments and blank lines
+                    continue;
+                }
+
+                // Break up into args
+                String[] args = line.split(" ");
+
+                String c = toCommandName(args[0]);
+
+                Command command = lookup.getCommand(c);
+                if (command == null) {
+                    throw new CommandReaderException(String.format("Unknown command at line %d", lineNo));
+                }
+
+                return new CommandCall(command, c, Arrays.copyOfRange(args, 1, args.length));
+            }
+            return null;
+        }
+
+        private void close() throws IOException {
+            in.close();
+        }
+
+    }
+
+    // Thrown to roll back the current chunk of a transactional batch
+    private static class BatchAbortedException extends RuntimeException {
+
+        private static final long serialVersionUID = 2376478245573453152L;
+
+    }
+
     // Holder for command invocation
-    private static class CommandCall {
+    static class CommandCall {
         
         private final Command command;
         
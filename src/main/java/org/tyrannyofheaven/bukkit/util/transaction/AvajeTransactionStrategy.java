@@ -22,6 +22,11 @@ import com.avaje.ebean.EbeanServer;
  * transaction. The transaction is committed upon return of the callback.
  * To force rollback, throw an exception.
  * 
+ * If created with <code>joinExisting</code> and a transaction is already
+ * active (e.g. a batch of commands is being run within a single
+ * transaction), the action simply participates in it. Otherwise, a new
+ * transaction is always begun.
+ * 
  * @author zerothangel
  */
 public class AvajeTransactionStrategy implements TransactionStrategy {
@@ -32,18 +37,33 @@ public class AvajeTransactionStrategy implements TransactionStrategy {
 
     private final PreCommitHook preCommitHook;
 
+    private final boolean joinExisting;
+
     /**
      * Create an instance associated with the given EbeanServer.
      * 
      * @param ebeanServer the EbeanServer to use for transactions
      * @param preCommitHook the pre-commit hook or null
+     * @param joinExisting true if an already-active transaction should be
+     *   joined rather than a new one begun
      */
-    public AvajeTransactionStrategy(EbeanServer ebeanServer, PreBeginHook preBeginHook, PreCommitHook preCommitHook) {
+    public AvajeTransactionStrategy(EbeanServer ebeanServer, PreBeginHook preBeginHook, PreCommitHook preCommitHook, boolean joinExisting) {
         if (ebeanServer == null)
             throw new IllegalArgumentException("ebeanServer cannot be null");
         this.ebeanServer = ebeanServer;
         this.preBeginHook = preBeginHook;
         this.preCommitHook = preCommitHook;
+        this.joinExisting = joinExisting;
+    }
+
+    /**
+     * Create an instance associated with the given EbeanServer.
+     * 
+     * @param ebeanServer the EbeanServer to use for transactions
+     * @param preCommitHook the pre-commit hook or null
+     */
+    public AvajeTransactionStrategy(EbeanServer ebeanServer, PreBeginHook preBeginHook, PreCommitHook preCommitHook) {
+        this(ebeanServer, preBeginHook, preCommitHook, false);
     }
 
     /**
@@ -85,6 +105,21 @@ public class AvajeTransactionStrategy implements TransactionStrategy {
     public <T> T execute(TransactionCallback<T> callback, boolean readOnly) {
         if (callback == null)
             throw new IllegalArgumentException("callback cannot be null");
+
+        if (joinExisting && getEbeanServer().currentTransaction() != null) {
+            // Participate in the current transaction. It is up to whoever
+            // began it to commit or roll back.
+            try {
+                return callback.doInTransaction();
+            }
+            catch (Error | RuntimeException e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new TransactionException(t);
+            }
+        }
+
         try {
             if (getPreBeginHook() != null)
                 getPreBeginHook().preBegin(readOnly);
@@ -24,6 +24,11 @@ import com.avaje.ebean.EbeanServer;
  * transaction. The transaction is committed upon return of the callback.
  * To force rollback, throw an exception.
  * 
+ * If created with <code>joinExisting</code> and a transaction is already
+ * active (e.g. a batch of commands is being run within a single
+ * transaction), the action simply participates in it. Otherwise, a new
+ * transaction is always begun.
+ * 
  * Any PersistenceExceptions caught will cause the transaction to be
  * retried (up to maxRetries times).
  * 
@@ -39,14 +44,18 @@ public class RetryingAvajeTransactionStrategy implements TransactionStrategy {
 
     private final PreCommitHook preCommitHook;
 
+    private final boolean joinExisting;
+
     /**
      * Create an instance associated with the given EbeanServer.
      * 
      * @param ebeanServer the EbeanServer to use for transactions
      * @param maxRetries maximum number of retry attempts (total attempts = maxRetries + 1)
      * @param the pre-commit hook or null
+     * @param joinExisting true if an already-active transaction should be
+     *   joined rather than a new one begun
      */
-    public RetryingAvajeTransactionStrategy(EbeanServer ebeanServer, int maxRetries, PreBeginHook preBeginHook, PreCommitHook preCommitHook) {
+    public RetryingAvajeTransactionStrategy(EbeanServer ebeanServer, int maxRetries, PreBeginHook preBeginHook, PreCommitHook preCommitHook, boolean joinExisting) {
         if (ebeanServer == null)
             throw new IllegalArgumentException("ebeanServer cannot be null");
         if (maxRetries < 1)
@@ -55,6 +64,18 @@ public class RetryingAvajeTransactionStrategy implements TransactionStrategy {
         this.maxRetries = maxRetries;
         this.preBeginHook = preBeginHook;
         this.preCommitHook = preCommitHook;
+        this.joinExisting = joinExisting;
+    }
+
+    /**
+     * Create an instance associated with the given EbeanServer.
+     * 
+     * @param ebeanServer the EbeanServer to use for transactions
+     * @param maxRetries maximum number of retry attempts (total attempts = maxRetries + 1)
+     * @param the pre-commit hook or null
+     */
+    public RetryingAvajeTransactionStrategy(EbeanServer ebeanServer, int maxRetries, PreBeginHook preBeginHook, PreCommitHook preCommitHook) {
+        this(ebeanServer, maxRetries, preBeginHook, preCommitHook, false);
     }
 
     /**
@@ -97,6 +118,21 @@ public class RetryingAvajeTransactionStrategy implements TransactionStrategy {
     public <T> T execute(TransactionCallback<T> callback, boolean readOnly) {
         if (callback == null)
             throw new IllegalArgumentException("callback cannot be null");
+
+        if (joinExisting && getEbeanServer().currentTransaction() != null) {
+            // Participate in the current transaction. It is up to whoever
+            // began it to commit or roll back.
+            try {
+                return callback.doInTransaction();
+            }
+            catch (Error | RuntimeException e) {
+                throw e;
+            }
+            catch (Throwable t) {
+                throw new TransactionException(t);
+            }
+        }
+
         PersistenceException savedPE = null;
         for (int attempt = -1; attempt < maxRetries; attempt++) {
             try {
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Non-blocking counterpart of {@link UuidResolver}. Implementations should
+ * not tie up a thread for each outstanding lookup.
+ * 
+ * <p>Callbacks attached to the returned futures may run on an arbitrary
+ * thread. Use the Bukkit scheduler to get back to the main thread.
+ * 
+ * @author zerothangel
+ */
+public interface AsyncUuidResolver {
+
+    /**
+     * Looks up the UUID of a username without blocking.
+     * 
+     * @param username the username
+     * @return future of a {@link UuidDisplayName} instance, which is completed with
+     *     null if the username could not be found
+     */
+    public ListenableFuture<UuidDisplayName> resolveAsync(String username);
+
+    /**
+     * Bulk resolution of usernames to UUIDs without blocking.
+     * 
+     * @param usernames collection of usernames to resolve
+     * @return future of a map of lowercased username to corresponding {@link UuidDisplayName}.
+     *     Usernames that could not be found are absent.
+     */
+    public ListenableFuture<Map<String, UuidDisplayName>> resolveAsync(Collection<String> usernames);
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Adapts a blocking {@link UuidResolver} to {@link AsyncUuidResolver} by
+ * running lookups on an ExecutorService. The blocking methods are simply
+ * delegated, so instances may be used wherever a UuidResolver is expected.
+ * 
+ * @author zerothangel
+ */
+public class AsyncUuidResolverAdapter implements UuidResolver, AsyncUuidResolver, ReverseUuidResolver {
+
+    private final UuidResolver uuidResolver;
+
+    private final ListeningExecutorService executorService;
+
+    /**
+     * Create an AsyncUuidResolverAdapter.
+     * 
+     * @param uuidResolver the blocking UuidResolver
+     * @param executorService the ExecutorService to perform lookups on
+     */
+    public AsyncUuidResolverAdapter(UuidResolver uuidResolver, ExecutorService executorService) {
+        if (uuidResolver == null)
+            throw new IllegalArgumentException("uuidResolver cannot be null");
+        if (executorService == null)
+            throw new IllegalArgumentException("executorService cannot be null");
+
+        this.uuidResolver = uuidResolver;
+        this.executorService = MoreExecutors.listeningDecorator(executorService);
+    }
+
+    @Override
+    public ListenableFuture<UuidDisplayName> resolveAsync(final String username) {
+        return executorService.submit(new Callable<UuidDisplayName>() {
+            @Override
+            public UuidDisplayName call() throws Exception {
+                return uuidResolver.resolve(username);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Map<String, UuidDisplayName>> resolveAsync(final Collection<String> usernames) {
+        return executorService.submit(new Callable<Map<String, UuidDisplayName>>() {
+            @Override
+            public Map<String, UuidDisplayName> call() throws Exception {
+                return uuidResolver.resolve(usernames);
+            }
+        });
+    }
+
+    @Override
+    public UuidDisplayName resolve(String username) {
+        return uuidResolver.resolve(username);
+    }
+
+    @Override
+    public UuidDisplayName resolve(String username, boolean cacheOnly) {
+        return uuidResolver.resolve(username, cacheOnly);
+    }
+
+    @Override
+    public Map<String, UuidDisplayName> resolve(Collection<String> usernames) throws Exception {
+        return uuidResolver.resolve(usernames);
+    }
+
+    @Override
+    public UuidDisplayName resolveUuid(UUID uuid) {
+        if (uuidResolver instanceof ReverseUuidResolver)
+            return ((ReverseUuidResolver)uuidResolver).resolveUuid(uuid);
+        return null;
+    }
+
+    @Override
+    public void preload(String username, UUID uuid) {
+        uuidResolver.preload(username, uuid);
+    }
+
+    @Override
+    public void invalidate(String username) {
+        uuidResolver.invalidate(username);
+    }
+
+    @Override
+    public void invalidateAll() {
+        uuidResolver.invalidateAll();
+    }
+
+}
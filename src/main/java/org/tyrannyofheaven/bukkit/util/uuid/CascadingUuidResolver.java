@@ -18,14 +18,37 @@ package org.tyrannyofheaven.bukkit.util.uuid;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
-public class CascadingUuidResolver implements UuidResolver {
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * UuidResolver that consults a list of UuidResolvers in order. Mappings
+ * found by a later UuidResolver are preloaded into the ones before it, so
+ * caching resolvers (e.g. {@link PersistentUuidResolver}) should come first.
+ * 
+ * <p>Usernames that a {@link NegativeCachingUuidResolver} remembers as not
+ * found are not looked up any further. Usernames that no UuidResolver found
+ * during a bulk or asynchronous lookup are remembered as not found by the
+ * NegativeCachingUuidResolvers. (Single synchronous lookups can't tell a
+ * failed lookup from a missing username, so they are not remembered.)
+ * 
+ * <p>For asynchronous lookups, UuidResolvers that do not implement
+ * {@link AsyncUuidResolver} are called on the calling thread. Wrap any that
+ * may block in an {@link AsyncUuidResolverAdapter}.
+ * 
+ * @author zerothangel
+ */
+public class CascadingUuidResolver implements UuidResolver, AsyncUuidResolver, ReverseUuidResolver {
 
     private final List<UuidResolver> uuidResolvers;
 
@@ -39,18 +62,28 @@ public class CascadingUuidResolver implements UuidResolver {
 
     @Override
     public UuidDisplayName resolve(String username) {
-        for (UuidResolver uuidResolver : uuidResolvers) {
-            UuidDisplayName udn = uuidResolver.resolve(username);
-            if (udn != null) return udn;
+        for (int i = 0; i < uuidResolvers.size(); i++) {
+            UuidDisplayName udn = uuidResolvers.get(i).resolve(username);
+            if (udn != null) {
+                writeBack(i, udn);
+                return udn;
+            }
+            if (isNotFound(i, username))
+                return null;
         }
         return null;
     }
 
     @Override
     public UuidDisplayName resolve(String username, boolean cacheOnly) {
-        for (UuidResolver uuidResolver : uuidResolvers) {
-            UuidDisplayName udn = uuidResolver.resolve(username, cacheOnly);
-            if (udn != null) return udn;
+        for (int i = 0; i < uuidResolvers.size(); i++) {
+            UuidDisplayName udn = uuidResolvers.get(i).resolve(username, cacheOnly);
+            if (udn != null) {
+                writeBack(i, udn);
+                return udn;
+            }
+            if (isNotFound(i, username))
+                return null;
         }
         return null;
     }
@@ -65,20 +98,146 @@ public class CascadingUuidResolver implements UuidResolver {
         }
 
         Map<String, UuidDisplayName> result = new LinkedHashMap<>();
-        for (UuidResolver uuidResolver : uuidResolvers) {
+        for (int i = 0; i < uuidResolvers.size(); i++) {
             if (remaining.isEmpty()) break;
-            Map<String, UuidDisplayName> resolved = uuidResolver.resolve(remaining);
-            // Merge results, but don't overwrite existing entries
-            for (Map.Entry<String, UuidDisplayName> me : resolved.entrySet()) {
-                String username = me.getKey();
-                if (!result.containsKey(username)) result.put(username, me.getValue());
-            }
-            // Adjust remaining set of usernames
-            remaining.removeAll(resolved.keySet());
+            Map<String, UuidDisplayName> resolved = uuidResolvers.get(i).resolve(remaining);
+            merge(i, resolved, result, remaining);
         }
+        writeBackNotFound(remaining);
         return result;
     }
 
+    @Override
+    public ListenableFuture<UuidDisplayName> resolveAsync(String username) {
+        return resolveAsync(username, 0);
+    }
+
+    // Resolve using the resolver at the given index, moving on to the next if not found
+    private ListenableFuture<UuidDisplayName> resolveAsync(final String username, final int index) {
+        if (index >= uuidResolvers.size()) {
+            writeBackNotFound(Collections.singleton(username));
+            return Futures.immediateFuture(null);
+        }
+
+        UuidResolver uuidResolver = uuidResolvers.get(index);
+        ListenableFuture<UuidDisplayName> future;
+        if (uuidResolver instanceof AsyncUuidResolver)
+            future = ((AsyncUuidResolver)uuidResolver).resolveAsync(username);
+        else
+            future = Futures.immediateFuture(uuidResolver.resolve(username));
+
+        return Futures.transform(future, new AsyncFunction<UuidDisplayName, UuidDisplayName>() {
+            @Override
+            public ListenableFuture<UuidDisplayName> apply(UuidDisplayName udn) {
+                if (udn != null) {
+                    writeBack(index, udn);
+                    return Futures.immediateFuture(udn);
+                }
+                if (isNotFound(index, username))
+                    return Futures.immediateFuture(null);
+                return resolveAsync(username, index + 1);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Map<String, UuidDisplayName>> resolveAsync(Collection<String> usernames) {
+        Set<String> remaining = new HashSet<>();
+        for (String username : usernames) {
+            // Ensure everything is lowercased
+            remaining.add(username.toLowerCase());
+        }
+
+        return resolveAsync(remaining, new LinkedHashMap<String, UuidDisplayName>(), 0);
+    }
+
+    // Resolve remaining usernames using the resolver at the given index and all after it
+    private ListenableFuture<Map<String, UuidDisplayName>> resolveAsync(final Set<String> remaining, final Map<String, UuidDisplayName> result, final int index) {
+        if (remaining.isEmpty() || index >= uuidResolvers.size()) {
+            writeBackNotFound(remaining);
+            return Futures.immediateFuture(result);
+        }
+
+        UuidResolver uuidResolver = uuidResolvers.get(index);
+        ListenableFuture<Map<String, UuidDisplayName>> future;
+        if (uuidResolver instanceof AsyncUuidResolver) {
+            future = ((AsyncUuidResolver)uuidResolver).resolveAsync(new HashSet<>(remaining));
+        }
+        else {
+            try {
+                future = Futures.immediateFuture(uuidResolver.resolve(remaining));
+            }
+            catch (Exception e) {
+                future = Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return Futures.transform(future, new AsyncFunction<Map<String, UuidDisplayName>, Map<String, UuidDisplayName>>() {
+            @Override
+            public ListenableFuture<Map<String, UuidDisplayName>> apply(Map<String, UuidDisplayName> resolved) {
+                merge(index, resolved, result, remaining);
+                return resolveAsync(remaining, result, index + 1);
+            }
+        });
+    }
+
+    // Merge results from the resolver at the given index
+    private void merge(int index, Map<String, UuidDisplayName> resolved, Map<String, UuidDisplayName> result, Set<String> remaining) {
+        // Merge results, but don't overwrite existing entries
+        for (Map.Entry<String, UuidDisplayName> me : resolved.entrySet()) {
+            String username = me.getKey();
+            if (!result.containsKey(username)) {
+                result.put(username, me.getValue());
+                writeBack(index, me.getValue());
+            }
+        }
+        // Adjust remaining set of usernames
+        remaining.removeAll(resolved.keySet());
+        // Don't look any further for usernames known not to exist
+        for (Iterator<String> i = remaining.iterator(); i.hasNext();) {
+            if (isNotFound(index, i.next()))
+                i.remove();
+        }
+    }
+
+    // Tests whether the resolver at the given index remembers the username
+    // as not found
+    private boolean isNotFound(int index, String username) {
+        UuidResolver uuidResolver = uuidResolvers.get(index);
+        return uuidResolver instanceof NegativeCachingUuidResolver && ((NegativeCachingUuidResolver)uuidResolver).isNotFound(username);
+    }
+
+    // Remember usernames that no resolver found
+    private void writeBackNotFound(Collection<String> usernames) {
+        if (usernames.isEmpty()) return;
+        for (UuidResolver uuidResolver : uuidResolvers) {
+            if (uuidResolver instanceof NegativeCachingUuidResolver) {
+                for (String username : usernames) {
+                    ((NegativeCachingUuidResolver)uuidResolver).preloadNotFound(username);
+                }
+            }
+        }
+    }
+
+    @Override
+    public UuidDisplayName resolveUuid(UUID uuid) {
+        for (UuidResolver uuidResolver : uuidResolvers) {
+            if (uuidResolver instanceof ReverseUuidResolver) {
+                UuidDisplayName udn = ((ReverseUuidResolver)uuidResolver).resolveUuid(uuid);
+                if (udn != null) return udn;
+            }
+        }
+        return null;
+    }
+
+    // Preload a mapping found by the given resolver into all resolvers before it
+    private void writeBack(int index, UuidDisplayName udn) {
+        if (udn.getDisplayName() == null) return;
+        for (int i = 0; i < index; i++) {
+            uuidResolvers.get(i).preload(udn.getDisplayName(), udn.getUuid());
+        }
+    }
+
     @Override
     public void preload(String username, UUID uuid) {
         for (UuidResolver uuidResolver : uuidResolvers) {
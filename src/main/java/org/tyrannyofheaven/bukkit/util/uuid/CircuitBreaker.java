@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+/**
+ * Stops requests to a failing service. After a number of consecutive
+ * failures, the breaker opens and requests are refused until a cooldown
+ * passes. A single probe request is then let through; its outcome decides
+ * whether the breaker closes again or stays open for another cooldown.
+ * 
+ * @author zerothangel
+ */
+final class CircuitBreaker {
+
+    private final int failureThreshold;
+
+    private final long openDuration;
+
+    private int failures; // guarded by this
+
+    private long openedAt; // guarded by this
+
+    private boolean open; // guarded by this
+
+    private boolean probing; // guarded by this
+
+    /**
+     * Create a CircuitBreaker.
+     * 
+     * @param failureThreshold number of consecutive failures that open the
+     *     breaker
+     * @param openDuration how long to stay open before probing, in milliseconds
+     */
+    CircuitBreaker(int failureThreshold, long openDuration) {
+        if (failureThreshold < 1)
+            throw new IllegalArgumentException("failureThreshold must be > 0");
+        if (openDuration < 0L)
+            throw new IllegalArgumentException("openDuration must be >= 0");
+
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Returns whether or not a request may be made. If true, the outcome
+     * must be reported with {@link #recordSuccess()} or
+     * {@link #recordFailure()}.
+     * 
+     * @return true if the request may proceed
+     */
+    synchronized boolean allowRequest() {
+        if (!open)
+            return true;
+        if (probing || System.currentTimeMillis() - openedAt < openDuration)
+            return false;
+        probing = true; // Half-open
+        return true;
+    }
+
+    synchronized void recordSuccess() {
+        failures = 0;
+        open = false;
+        probing = false;
+    }
+
+    synchronized void recordFailure() {
+        failures++;
+        if (probing || failures >= failureThreshold) {
+            open = true;
+            openedAt = System.currentTimeMillis();
+            probing = false;
+        }
+    }
+
+    /**
+     * Returns whether or not the breaker is currently refusing requests.
+     * 
+     * @return true if open
+     */
+    synchronized boolean isOpen() {
+        return open;
+    }
+
+}
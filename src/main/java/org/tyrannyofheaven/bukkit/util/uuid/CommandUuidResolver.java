@@ -31,6 +31,9 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
 public class CommandUuidResolver {
 
     private final Plugin plugin;
@@ -63,10 +66,10 @@ public class CommandUuidResolver {
             UuidDisplayName udn = parseUuidDisplayName(name);
             if (udn != null) {
                 String displayName;
-                OfflinePlayer player = Bukkit.getOfflinePlayer(udn.getUuid());
-                if (player != null && player.getName() != null) {
+                String lastKnownName = getLastKnownName(udn.getUuid());
+                if (lastKnownName != null) {
                     // Use last known name
-                    displayName = player.getName();
+                    displayName = lastKnownName;
                 }
                 else {
                     // Default display name (either what was passed in or the UUID in string form)
@@ -101,10 +104,27 @@ public class CommandUuidResolver {
                     else {
                         // As an absolute last resort, resolve and run async
                         sendMessage(sender, colorize("{GRAY}(Resolving UUID...)"));
-                        Runnable task = new UsernameResolverHandlerRunnable(this, plugin, uuidResolver, sender, name, skip, handler);
-                        // NB Bukkit#getOfflinePlayer(String) provides almost the same service
-                        // However, it's not known whether it is fully thread-safe.
-                        executor.execute(task);
+                        final UsernameResolverHandlerRunnable task = new UsernameResolverHandlerRunnable(this, plugin, uuidResolver, sender, name, skip, handler);
+                        if (uuidResolver instanceof AsyncUuidResolver) {
+                            // No need to hop to the executor
+                            Futures.addCallback(((AsyncUuidResolver)uuidResolver).resolveAsync(name), new FutureCallback<UuidDisplayName>() {
+                                @Override
+                                public void onSuccess(UuidDisplayName result) {
+                                    task.complete(result);
+                                }
+
+                                @Override
+                                public void onFailure(Throwable t) {
+                                    t.printStackTrace();
+                                    task.complete(null);
+                                }
+                            });
+                        }
+                        else {
+                            // NB Bukkit#getOfflinePlayer(String) provides almost the same service
+                            // However, it's not known whether it is fully thread-safe.
+                            executor.execute(task);
+                        }
                     }
                 }
             }
@@ -147,8 +167,10 @@ public class CommandUuidResolver {
         @Override
         public void run() {
             // Perform lookup
-            final UuidDisplayName udn = uuidResolver.resolve(name);
+            complete(uuidResolver.resolve(name));
+        }
 
+        private void complete(final UuidDisplayName udn) {
             // Run the rest in the main thread
             Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, new Runnable() {
                 @Override
@@ -179,6 +201,22 @@ public class CommandUuidResolver {
         resolveUsername(sender, name, false, isBatchProcessing(), handler);
     }
 
+    // Returns the last known name of the UUID, or null if unknown
+    private String getLastKnownName(UUID uuid) {
+        Player online = Bukkit.getPlayer(uuid);
+        if (online != null)
+            return online.getName();
+
+        if (uuidResolver instanceof ReverseUuidResolver) {
+            // Avoid OfflinePlayer, which may load the player's data from disk
+            UuidDisplayName udn = ((ReverseUuidResolver)uuidResolver).resolveUuid(uuid);
+            return udn != null ? udn.getDisplayName() : null;
+        }
+
+        OfflinePlayer player = Bukkit.getOfflinePlayer(uuid);
+        return player != null ? player.getName() : null;
+    }
+
     private void fail(CommandSender sender, String name) {
         sendMessage(sender, colorize("{RED}Failed to lookup UUID for {AQUA}%s"), name);
         if (abortInline) abortBatchProcessing();
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the latencies of the most recent requests and derives a
+ * timeout from them.
+ * 
+ * @author zerothangel
+ */
+final class LatencyTracker {
+
+    private static final int MIN_SAMPLES = 10;
+
+    private final long[] samples; // guarded by this
+
+    private int count; // guarded by this
+
+    private int next; // guarded by this
+
+    private final long minTimeout;
+
+    private final long maxTimeout;
+
+    /**
+     * Create a LatencyTracker.
+     * 
+     * @param windowSize number of recent requests to consider
+     * @param minTimeout lower bound on the timeout, in milliseconds
+     * @param maxTimeout upper bound on the timeout, in milliseconds. Also
+     *     used until enough requests have been observed.
+     */
+    LatencyTracker(int windowSize, long minTimeout, long maxTimeout) {
+        if (windowSize < MIN_SAMPLES)
+            throw new IllegalArgumentException("windowSize must be >= " + MIN_SAMPLES);
+        if (minTimeout > maxTimeout)
+            throw new IllegalArgumentException("minTimeout must be <= maxTimeout");
+
+        this.samples = new long[windowSize];
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    }
+
+    /**
+     * Record the latency of a successful request.
+     * 
+     * @param latency the latency in milliseconds
+     */
+    synchronized void record(long latency) {
+        samples[next] = latency;
+        next = (next + 1) % samples.length;
+        if (count < samples.length)
+            count++;
+    }
+
+    /**
+     * Returns a timeout of a few times the 95th percentile latency, within
+     * the configured bounds.
+     * 
+     * @return the timeout in milliseconds
+     */
+    long getTimeout() {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES)
+                return maxTimeout;
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        long p95 = sorted[(int)Math.ceil(0.95 * sorted.length) - 1];
+        return Math.max(minTimeout, Math.min(maxTimeout, 4L * p95));
+    }
+
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
+import static org.tyrannyofheaven.bukkit.util.uuid.UuidUtils.getOfflineUuid;
+import static org.tyrannyofheaven.bukkit.util.uuid.UuidUtils.parseUuidDisplayName;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.google.common.base.Charsets;
+
+/**
+ * UuidResolver that never leaves the server. Usernames are resolved, in
+ * order, from:
+ * 
+ * <ol>
+ * <li>a mapping file with one <code>uuid/username</code> entry per line
+ *     (blank lines and lines starting with <code>#</code> are ignored)</li>
+ * <li>preloaded mappings</li>
+ * <li>the server's user cache (<code>usercache.json</code>)</li>
+ * <li>if offline mode is enabled, the offline-mode UUID of the username</li>
+ * </ol>
+ * 
+ * <p>Intended for offline-mode servers and test networks where Mojang's
+ * API is unreachable. All lookups are answered from memory.
+ * 
+ * @author zerothangel
+ */
+public class LocalUuidResolver implements UuidResolver {
+
+    private final File mappingFile;
+
+    private final File userCacheFile;
+
+    private final boolean offlineMode;
+
+    // All maps keyed by lowercased username
+
+    private volatile Map<String, UuidDisplayName> mappings = Collections.emptyMap();
+
+    private final ConcurrentMap<String, UuidDisplayName> preloaded = new ConcurrentHashMap<>();
+
+    private volatile Map<String, UuidDisplayName> userCache = Collections.emptyMap();
+
+    /**
+     * Create a LocalUuidResolver and load its files.
+     * 
+     * @param mappingFile the mapping file. May be null. Need not exist.
+     * @param userCacheFile the server's user cache. May be null. Need not exist.
+     * @param offlineMode true if unknown usernames should be resolved to
+     *     their offline-mode UUIDs
+     * @throws IOException if a file could not be read
+     */
+    public LocalUuidResolver(File mappingFile, File userCacheFile, boolean offlineMode) throws IOException {
+        this.mappingFile = mappingFile;
+        this.userCacheFile = userCacheFile;
+        this.offlineMode = offlineMode;
+
+        reload();
+    }
+
+    /**
+     * Re-read the mapping file and user cache.
+     * 
+     * @throws IOException if a file could not be read
+     */
+    public void reload() throws IOException {
+        Map<String, UuidDisplayName> newMappings = Collections.emptyMap();
+        if (mappingFile != null && mappingFile.exists())
+            newMappings = readMappingFile(mappingFile);
+
+        Map<String, UuidDisplayName> newUserCache = Collections.emptyMap();
+        if (userCacheFile != null && userCacheFile.exists())
+            newUserCache = readUserCache(userCacheFile);
+
+        mappings = newMappings;
+        userCache = newUserCache;
+    }
+
+    private static Map<String, UuidDisplayName> readMappingFile(File file) throws IOException {
+        Map<String, UuidDisplayName> result = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                UuidDisplayName udn = parseUuidDisplayName(line);
+                if (udn == null || !hasText(udn.getDisplayName()))
+                    throw new IOException(String.format("Expecting uuid/username at %s line %d", file, lineNumber));
+                result.put(udn.getDisplayName().toLowerCase(), udn);
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    private static Map<String, UuidDisplayName> readUserCache(File file) throws IOException {
+        Map<String, UuidDisplayName> result = new HashMap<>();
+        Reader reader = new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+        try {
+            JSONArray entries = (JSONArray)new JSONParser().parse(reader);
+            for (Object obj : entries) {
+                JSONObject entry = (JSONObject)obj;
+                String name = (String)entry.get("name");
+                String uuidString = (String)entry.get("uuid");
+                if (!hasText(name) || !hasText(uuidString))
+                    continue;
+
+                UUID uuid;
+                try {
+                    uuid = UUID.fromString(uuidString);
+                }
+                catch (IllegalArgumentException e) {
+                    continue;
+                }
+                result.put(name.toLowerCase(), new UuidDisplayName(uuid, name));
+            }
+        }
+        catch (ParseException | ClassCastException e) {
+            throw new IOException("Malformed user cache " + file, e);
+        }
+        finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    @Override
+    public UuidDisplayName resolve(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        String key = username.toLowerCase();
+        UuidDisplayName udn = mappings.get(key);
+        if (udn == null)
+            udn = preloaded.get(key);
+        if (udn == null)
+            udn = userCache.get(key);
+        if (udn == null && offlineMode)
+            udn = new UuidDisplayName(getOfflineUuid(username), username);
+        return udn;
+    }
+
+    @Override
+    public UuidDisplayName resolve(String username, boolean cacheOnly) {
+        return resolve(username); // Never blocks
+    }
+
+    @Override
+    public Map<String, UuidDisplayName> resolve(Collection<String> usernames) throws Exception {
+        if (usernames == null)
+            throw new IllegalArgumentException("usernames cannot be null");
+
+        Map<String, UuidDisplayName> result = new LinkedHashMap<>();
+        for (String username : usernames) {
+            UuidDisplayName udn = resolve(username);
+            if (udn != null)
+                result.put(username.toLowerCase(), udn);
+        }
+        return result;
+    }
+
+    @Override
+    public void preload(String username, UUID uuid) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+        if (uuid == null)
+            throw new IllegalArgumentException("uuid cannot be null");
+
+        preloaded.put(username.toLowerCase(), new UuidDisplayName(uuid, username));
+    }
+
+    @Override
+    public void invalidate(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        preloaded.remove(username.toLowerCase());
+    }
+
+    @Override
+    public void invalidateAll() {
+        preloaded.clear();
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Collects single-username lookups arriving within a short window and
+ * performs them as a single bulk lookup.
+ * 
+ * @author zerothangel
+ */
+final class LookupCoalescer {
+
+    // How long the flushing thread lingers once there is nothing to flush
+    private static final long DEFAULT_KEEP_ALIVE = 60000L; // milliseconds
+
+    private final BatchLookup batchLookup;
+
+    private final int maxBatchSize;
+
+    private final long window;
+
+    private final ScheduledThreadPoolExecutor executorService;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // Pending lookups by lowercased username
+    private Map<String, SettableFuture<UuidDisplayName>> pending = new LinkedHashMap<>(); // guarded by this
+
+    private boolean closed; // guarded by this
+
+    /**
+     * Create a LookupCoalescer.
+     * 
+     * @param batchLookup performs the bulk lookup
+     * @param maxBatchSize lookups are performed immediately once this many
+     *     are pending. Also the maximum number of usernames passed to a
+     *     single bulk lookup.
+     * @param window how long to collect lookups, in milliseconds
+     */
+    LookupCoalescer(BatchLookup batchLookup, int maxBatchSize, long window) {
+        this(batchLookup, maxBatchSize, window, DEFAULT_KEEP_ALIVE);
+    }
+
+    // Create a LookupCoalescer whose thread exits after the given idle time,
+    // in milliseconds (used by tests)
+    LookupCoalescer(BatchLookup batchLookup, int maxBatchSize, long window, long keepAlive) {
+        if (batchLookup == null)
+            throw new IllegalArgumentException("batchLookup cannot be null");
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maxBatchSize must be > 0");
+
+        this.batchLookup = batchLookup;
+        this.maxBatchSize = maxBatchSize;
+        this.window = window;
+        // The thread is only started once a lookup is queued, and exits once
+        // idle, so nothing leaks if close() is never called
+        this.executorService = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                .setNameFormat("LookupCoalescer-%d")
+                .setDaemon(true)
+                .build());
+        this.executorService.setKeepAliveTime(keepAlive, TimeUnit.MILLISECONDS);
+        this.executorService.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue a lookup.
+     * 
+     * @param username the lowercased username
+     * @return future of the result, which is completed with null if the
+     *     username was not found
+     */
+    synchronized ListenableFuture<UuidDisplayName> submit(String username) {
+        if (closed)
+            return Futures.immediateFailedFuture(new IllegalStateException("LookupCoalescer has been closed"));
+
+        SettableFuture<UuidDisplayName> future = pending.get(username);
+        if (future != null)
+            return future;
+
+        future = SettableFuture.create();
+        pending.put(username, future);
+
+        if (pending.size() >= maxBatchSize)
+            executorService.execute(flushTask);
+        else if (pending.size() == 1)
+            executorService.schedule(flushTask, window, TimeUnit.MILLISECONDS);
+
+        return future;
+    }
+
+    private void flush() {
+        Map<String, SettableFuture<UuidDisplayName>> batch;
+        synchronized (this) {
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        // More may have been submitted while waiting to flush
+        for (List<String> usernames : Lists.partition(new ArrayList<>(batch.keySet()), maxBatchSize)) {
+            try {
+                Map<String, UuidDisplayName> result = batchLookup.lookup(usernames);
+                for (String username : usernames) {
+                    batch.get(username).set(result.get(username));
+                }
+            }
+            catch (Throwable t) {
+                for (String username : usernames) {
+                    batch.get(username).setException(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the flushing thread. Pending lookups are cancelled and further
+     * lookups fail.
+     */
+    void close() {
+        Map<String, SettableFuture<UuidDisplayName>> batch;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        executorService.shutdownNow();
+        for (SettableFuture<UuidDisplayName> future : batch.values()) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Performs a bulk lookup.
+     */
+    static interface BatchLookup {
+
+        /**
+         * Look up usernames.
+         * 
+         * @param usernames lowercased usernames
+         * @return map of lowercased username to UuidDisplayName. Usernames
+         *     that were not found are absent.
+         * @throws Exception if the lookup failed
+         */
+        public Map<String, UuidDisplayName> lookup(List<String> usernames) throws Exception;
+
+    }
+
+}
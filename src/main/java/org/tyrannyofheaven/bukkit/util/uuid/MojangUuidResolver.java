@@ -12,14 +12,24 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONArray;
@@ -29,56 +39,340 @@ import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.cache.AbstractCache;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
-
-public class MojangUuidResolver implements UuidResolver {
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class MojangUuidResolver implements UuidResolver, AsyncUuidResolver, ReverseUuidResolver {
 
     private static final String AGENT = "minecraft";
 
-    private static final UuidDisplayName NULL_UDN = new UuidDisplayName(UUID.randomUUID(), "NOT FOUND");
+    private static final String DEFAULT_PROFILES_URL = "https://api.mojang.com/profiles/" + AGENT;
+
+    private static final int BATCH_SIZE = 97; // Should be <= Mojang's AccountsClient's PROFILES_PER_REQUEST (100)
+
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 1.0; // Mojang allows 600 per 10 minutes
+
+    private static final int MAX_RATE_LIMITED_RETRIES = 5;
+
+    private static final long INITIAL_BACKOFF = 1000L; // milliseconds
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final long DEFAULT_COALESCE_WINDOW = 50L; // milliseconds
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    private static final long DEFAULT_OPEN_DURATION = 30000L; // milliseconds
+
+    private static final long EXECUTOR_KEEP_ALIVE = 60000L; // milliseconds
+
+    private static final int LATENCY_WINDOW = 50; // requests
+
+    private static final long MIN_TIMEOUT = 2000L; // milliseconds
+
+    private static final long MAX_TIMEOUT = 15000L; // milliseconds
+
+    // Entries are served while being refreshed, until they are this many TTLs old
+    private static final int MAX_STALE_TTLS = 2;
+
+    private final LoadingCache<String, CacheEntry> cache;
+
+    // Kept here rather than by the cache, since lookups don't map one-to-one
+    // onto cache operations
+    private final AbstractCache.StatsCounter stats = new AbstractCache.SimpleStatsCounter();
+
+    private final long positiveTtl; // milliseconds
+
+    private final long negativeTtl; // milliseconds
+
+    // Last-known display names by UUID
+    private final Cache<UUID, UuidDisplayName> reverseCache;
+
+    // Expired usernames, for use when lookups fail. null if disabled.
+    private volatile Cache<String, UuidDisplayName> staleCache;
 
-    private final Cache<String, UuidDisplayName> cache;
+    // Performs the batches of bulk lookups, and single lookups that aren't
+    // coalesced
+    private final ListeningExecutorService executorService;
 
+    private final Semaphore inFlightRequests;
+
+    private volatile CircuitBreaker circuitBreaker = new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+
+    private final LatencyTracker latencyTracker = new LatencyTracker(LATENCY_WINDOW, MIN_TIMEOUT, MAX_TIMEOUT);
+
+    private final RateLimiter rateLimiter; // null if unlimited
+
+    private final LookupCoalescer lookupCoalescer; // null if lookups are not coalesced
+
+    private final URL profilesUrl;
+
+    /**
+     * Create a MojangUuidResolver that neither rate-limits requests nor
+     * coalesces lookups. At most 4 requests are made concurrently. See
+     * {@link #MojangUuidResolver(int, long, TimeUnit, int, double, long)}
+     * to configure these limits.
+     * 
+     * @param cacheMaxSize maximum number of cached usernames
+     * @param cacheTtl how long to cache usernames
+     * @param cacheTtlUnits unit of cacheTtl
+     */
     public MojangUuidResolver(int cacheMaxSize, long cacheTtl, TimeUnit cacheTtlUnits) {
+        this(cacheMaxSize, cacheTtl, cacheTtlUnits, DEFAULT_MAX_CONCURRENT_REQUESTS, 0.0, 0L);
+    }
+
+    /**
+     * Create a MojangUuidResolver.
+     * 
+     * @param cacheMaxSize maximum number of cached usernames
+     * @param cacheTtl how long to cache usernames
+     * @param cacheTtlUnits unit of cacheTtl
+     * @param maxConcurrentRequests maximum number of concurrent requests
+     * @param requestsPerSecond maximum rate of requests to Mojang. 0 for
+     *     no limit.
+     * @param coalesceWindow how long to collect single-username lookups
+     *     into a single request, in milliseconds. 0 to look up each
+     *     username individually.
+     */
+    public MojangUuidResolver(int cacheMaxSize, long cacheTtl, TimeUnit cacheTtlUnits, int maxConcurrentRequests, double requestsPerSecond, long coalesceWindow) {
+        this(cacheMaxSize, cacheTtl, cacheTtlUnits, maxConcurrentRequests, requestsPerSecond, coalesceWindow, DEFAULT_PROFILES_URL);
+    }
+
+    /**
+     * Create a MojangUuidResolver that uses a different profile search
+     * endpoint, e.g. a local stub for load testing.
+     * 
+     * @param cacheMaxSize maximum number of cached usernames
+     * @param cacheTtl how long to cache usernames
+     * @param cacheTtlUnits unit of cacheTtl
+     * @param maxConcurrentRequests maximum number of concurrent requests
+     * @param requestsPerSecond maximum rate of requests to Mojang. 0 for
+     *     no limit.
+     * @param coalesceWindow how long to collect single-username lookups
+     *     into a single request, in milliseconds. 0 to look up each
+     *     username individually.
+     * @param profilesUrl URL of the profile search endpoint, which must
+     *     accept the same requests as Mojang's
+     */
+    public MojangUuidResolver(int cacheMaxSize, long cacheTtl, TimeUnit cacheTtlUnits, int maxConcurrentRequests, double requestsPerSecond, long coalesceWindow, String profilesUrl) {
+        this(cacheMaxSize, cacheTtl, cacheTtl, cacheTtlUnits, maxConcurrentRequests, requestsPerSecond, coalesceWindow, profilesUrl);
+    }
+
+    /**
+     * Create a MojangUuidResolver with separate TTLs for usernames that
+     * were found and usernames that were not.
+     * 
+     * <p>Once its TTL passes, an entry is refreshed in the background the
+     * next time it is used, and the old value is returned in the meantime.
+     * Entries that could not be refreshed expire once they are twice their
+     * own TTL old, and are then looked up again.
+     * 
+     * @param cacheMaxSize maximum number of cached usernames
+     * @param cacheTtl how long to cache usernames that were found
+     * @param negativeCacheTtl how long to cache usernames that were not found
+     * @param cacheTtlUnits unit of cacheTtl and negativeCacheTtl
+     * @param maxConcurrentRequests maximum number of concurrent requests
+     * @param requestsPerSecond maximum rate of requests to Mojang. 0 for
+     *     no limit.
+     * @param coalesceWindow how long to collect single-username lookups
+     *     into a single request, in milliseconds. 0 to look up each
+     *     username individually.
+     * @param profilesUrl URL of the profile search endpoint, which must
+     *     accept the same requests as Mojang's
+     */
+    public MojangUuidResolver(int cacheMaxSize, long cacheTtl, long negativeCacheTtl, TimeUnit cacheTtlUnits, int maxConcurrentRequests, double requestsPerSecond, long coalesceWindow, String profilesUrl) {
+        if (cacheTtl <= 0L)
+            throw new IllegalArgumentException("cacheTtl must be > 0");
+        if (negativeCacheTtl <= 0L)
+            throw new IllegalArgumentException("negativeCacheTtl must be > 0");
+        if (maxConcurrentRequests < 1)
+            throw new IllegalArgumentException("maxConcurrentRequests must be > 0");
+        if (requestsPerSecond < 0.0)
+            throw new IllegalArgumentException("requestsPerSecond must be >= 0");
+        if (coalesceWindow < 0L)
+            throw new IllegalArgumentException("coalesceWindow must be >= 0");
+        if (!hasText(profilesUrl))
+            throw new IllegalArgumentException("profilesUrl must have a value");
+
+        try {
+            this.profilesUrl = new URL(profilesUrl);
+        }
+        catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid profilesUrl", e);
+        }
+
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                EXECUTOR_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                        .setNameFormat("MojangUuidResolver-%d")
+                        .setDaemon(true)
+                        .build());
+        executorService.allowCoreThreadTimeOut(true);
+        this.executorService = MoreExecutors.listeningDecorator(executorService);
+        this.inFlightRequests = new Semaphore(maxConcurrentRequests);
+        this.rateLimiter = requestsPerSecond > 0.0 ? RateLimiter.create(requestsPerSecond) : null;
+        if (coalesceWindow > 0L) {
+            this.lookupCoalescer = new LookupCoalescer(new LookupCoalescer.BatchLookup() {
+                @Override
+                public Map<String, UuidDisplayName> lookup(List<String> usernames) throws Exception {
+                    return searchBatch(usernames);
+                }
+            }, BATCH_SIZE, coalesceWindow);
+        }
+        else
+            this.lookupCoalescer = null;
+
+        this.positiveTtl = cacheTtlUnits.toMillis(cacheTtl);
+        this.negativeTtl = cacheTtlUnits.toMillis(negativeCacheTtl);
+
+        reverseCache = CacheBuilder.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .build();
+        // Entries are refreshed and expired by getCached() according to their
+        // own TTL, which differs for found and not-found usernames
         cache = CacheBuilder.newBuilder()
                 .maximumSize(cacheMaxSize)
-                .expireAfterWrite(cacheTtl, cacheTtlUnits)
-                .build(new CacheLoader<String, UuidDisplayName>() {
+                .removalListener(new RemovalListener<String, CacheEntry>() {
                     @Override
-                    public UuidDisplayName load(String key) throws Exception {
-                        UuidDisplayName udn = _resolve(key);
-                        return udn != null ? udn : NULL_UDN; // Doesn't like nulls, so we use a marker object instead
+                    public void onRemoval(RemovalNotification<String, CacheEntry> notification) {
+                        if (notification.wasEvicted())
+                            stats.recordEviction();
+                    }
+                })
+                .build(new CacheLoader<String, CacheEntry>() {
+                    @Override
+                    public CacheEntry load(String key) throws Exception {
+                        UuidDisplayName udn = lookupCoalescer != null ? Uninterruptibles.getUninterruptibly(lookupCoalescer.submit(key)) : _resolve(key);
+                        if (udn != null) remember(udn);
+                        return new CacheEntry(udn);
+                    }
+
+                    @Override
+                    public ListenableFuture<CacheEntry> reload(String key, CacheEntry oldValue) throws Exception {
+                        // Old value continues to be served until this completes
+                        return Futures.transform(submitLookup(key), new Function<UuidDisplayName, CacheEntry>() {
+                            @Override
+                            public CacheEntry apply(UuidDisplayName udn) {
+                                if (udn != null) remember(udn);
+                                return new CacheEntry(udn);
+                            }
+                        });
                     }
                 });
     }
 
+    /**
+     * Returns statistics for the username cache, such as the hit rate,
+     * average load time and number of evictions. Each username looked up
+     * counts as one hit or miss, and each request to Mojang counts as one
+     * load.
+     * 
+     * @return the cache statistics
+     */
+    public CacheStats getCacheStats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Configure the circuit breaker guarding requests to Mojang. By default,
+     * 5 consecutive failures stop requests for 30 seconds.
+     * 
+     * @param failureThreshold number of consecutive failures that stop requests
+     * @param openDuration how long to stop requests before trying again
+     * @param openDurationUnit unit of openDuration
+     */
+    public void setCircuitBreaker(int failureThreshold, long openDuration, TimeUnit openDurationUnit) {
+        if (openDurationUnit == null)
+            throw new IllegalArgumentException("openDurationUnit cannot be null");
+
+        circuitBreaker = new CircuitBreaker(failureThreshold, openDurationUnit.toMillis(openDuration));
+    }
+
+    /**
+     * Remember resolved usernames beyond the cache TTL, so they can still
+     * be resolved while Mojang is unreachable. Disabled by default.
+     * 
+     * @param maxSize maximum number of usernames to remember. 0 to disable.
+     */
+    public void setStaleCacheSize(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize must be >= 0");
+
+        if (maxSize > 0) {
+            Cache<String, UuidDisplayName> newStaleCache = CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .build();
+            if (staleCache != null)
+                newStaleCache.putAll(staleCache.asMap());
+            staleCache = newStaleCache;
+        }
+        else
+            staleCache = null;
+    }
+
+    /**
+     * Stop the threads used for bulk and coalesced lookups. Lookups should
+     * not be performed afterwards.
+     */
+    public void close() {
+        executorService.shutdownNow();
+        if (lookupCoalescer != null)
+            lookupCoalescer.close();
+    }
+
     @Override
     public UuidDisplayName resolve(String username) {
         if (!hasText(username))
             throw new IllegalArgumentException("username must have a value");
 
+        String key = username.toLowerCase();
         try {
-            UuidDisplayName udn = cache.get(username.toLowerCase());
-            return udn != NULL_UDN ? udn : null;
+            CacheEntry entry = getCached(key);
+            if (entry == null)
+                entry = cache.get(key);
+            return entry.udn;
         }
         catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            if (!(Throwables.getRootCause(e) instanceof CircuitOpenException))
+                e.printStackTrace();
+            return getStale(key);
         }
     }
 
+    // Returns the stale entry for the lowercased username, if any
+    private UuidDisplayName getStale(String key) {
+        Cache<String, UuidDisplayName> staleCache = this.staleCache;
+        return staleCache != null ? staleCache.getIfPresent(key) : null;
+    }
+
     @Override
     public UuidDisplayName resolve(String username, boolean cacheOnly) {
         if (!hasText(username))
             throw new IllegalArgumentException("username must have a value");
 
         if (cacheOnly) {
-            UuidDisplayName udn = cache.asMap().get(username.toLowerCase());
-            if (udn == null) return null;
-            return udn != NULL_UDN ? udn : null; // NB Can't tell between "not cached" and "maps to null"
+            CacheEntry entry = getCached(username.toLowerCase());
+            if (entry == null) return null;
+            return entry.udn; // NB Can't tell between "not cached" and "maps to null"
         }
         else return resolve(username); // Same as normal version
     }
@@ -90,16 +384,197 @@ public class MojangUuidResolver implements UuidResolver {
 
         Map<String, UuidDisplayName> result = new LinkedHashMap<>();
 
-        final int BATCH_SIZE = 97; // Should be <= Mojang's AccountsClient's PROFILES_PER_REQUEST (100)
+        // Only look up names that aren't already cached (positively or negatively)
+        Set<String> toResolve = new LinkedHashSet<>();
+        for (String username : usernames) {
+            String key = username.toLowerCase();
+            CacheEntry entry = getCached(key);
+            if (entry == null)
+                toResolve.add(key);
+            else if (entry.udn != null)
+                result.put(key, entry.udn);
+        }
+        if (toResolve.isEmpty())
+            return result;
+
+        // Search each batch concurrently
+        List<List<String>> batches = Lists.partition(new ArrayList<>(toResolve), BATCH_SIZE);
+        List<Future<Map<String, UuidDisplayName>>> futures = new ArrayList<>(batches.size());
+        try {
+            for (final List<String> batch : batches) {
+                futures.add(executorService.submit(new Callable<Map<String, UuidDisplayName>>() {
+                    @Override
+                    public Map<String, UuidDisplayName> call() throws Exception {
+                        return resolveBatch(batch);
+                    }
+                }));
+            }
+
+            for (Future<Map<String, UuidDisplayName>> future : futures) {
+                try {
+                    result.putAll(future.get());
+                }
+                catch (ExecutionException e) {
+                    Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+        }
+        finally {
+            // Stop any remaining batches if one failed
+            for (Future<Map<String, UuidDisplayName>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public ListenableFuture<UuidDisplayName> resolveAsync(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        String key = username.toLowerCase();
+        CacheEntry entry = getCached(key);
+        if (entry != null)
+            return Futures.immediateFuture(entry.udn);
+
+        return lookupAsync(key);
+    }
+
+    // Look up an uncached (lowercased) username and cache the result
+    private ListenableFuture<UuidDisplayName> lookupAsync(final String key) {
+        // Waits on another thread rather than the caller's
+        ListenableFuture<UuidDisplayName> future = submitLookup(key);
+        Futures.addCallback(future, new FutureCallback<UuidDisplayName>() {
+            @Override
+            public void onSuccess(UuidDisplayName result) {
+                cacheResult(key, result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // Nothing to cache
+            }
+        });
+        return Futures.withFallback(future, new FutureFallback<UuidDisplayName>() {
+            @Override
+            public ListenableFuture<UuidDisplayName> create(Throwable t) throws Exception {
+                UuidDisplayName udn = getStale(key);
+                if (udn == null)
+                    return Futures.immediateFailedFuture(t);
+                return Futures.immediateFuture(udn);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Map<String, UuidDisplayName>> resolveAsync(Collection<String> usernames) {
+        if (usernames == null)
+            throw new IllegalArgumentException("usernames cannot be null");
+
+        final Map<String, UuidDisplayName> cached = new LinkedHashMap<>();
+        final List<String> keys = new ArrayList<>();
+        List<ListenableFuture<UuidDisplayName>> futures = new ArrayList<>();
+        Set<String> lowercased = new LinkedHashSet<>();
+        for (String username : usernames) {
+            lowercased.add(username.toLowerCase());
+        }
+        for (String key : lowercased) {
+            CacheEntry entry = getCached(key);
+            if (entry == null) {
+                keys.add(key);
+                futures.add(lookupAsync(key));
+            }
+            else if (entry.udn != null)
+                cached.put(key, entry.udn);
+        }
+        if (futures.isEmpty())
+            return Futures.immediateFuture(cached);
+
+        // Performed in batches if lookups are coalesced
+        return Futures.transform(Futures.allAsList(futures), new Function<List<UuidDisplayName>, Map<String, UuidDisplayName>>() {
+            @Override
+            public Map<String, UuidDisplayName> apply(List<UuidDisplayName> input) {
+                Map<String, UuidDisplayName> result = new LinkedHashMap<>(cached);
+                for (int i = 0; i < keys.size(); i++) {
+                    UuidDisplayName udn = input.get(i);
+                    if (udn != null)
+                        result.put(keys.get(i), udn);
+                }
+                return result;
+            }
+        });
+    }
+
+    // Look up a single (lowercased) username on another thread, along with
+    // others if lookups are coalesced
+    private ListenableFuture<UuidDisplayName> submitLookup(final String key) {
+        if (lookupCoalescer != null)
+            return lookupCoalescer.submit(key);
+
+        try {
+            return executorService.submit(new Callable<UuidDisplayName>() {
+                @Override
+                public UuidDisplayName call() throws Exception {
+                    return _resolve(key);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(new IllegalStateException("MojangUuidResolver has been closed"));
+        }
+    }
+
+    // Search a single batch of (lowercased) usernames and cache the results,
+    // including names that weren't found.
+    private Map<String, UuidDisplayName> resolveBatch(List<String> batch) throws IOException, ParseException, InterruptedException {
+        Map<String, UuidDisplayName> result = searchBatch(batch);
+
+        for (String key : batch) {
+            UuidDisplayName udn = result.get(key);
+            cacheResult(key, udn);
+        }
+
+        return result;
+    }
 
-        for (List<String> sublist : Lists.partition(new ArrayList<>(usernames), BATCH_SIZE)) {
-            List<Profile> searchResult = searchProfiles(sublist);
-            for (Profile profile : searchResult) {
-                String username = profile.getName();
-                UUID uuid = uncanonicalizeUuid(profile.getId());
-                result.put(username.toLowerCase(), new UuidDisplayName(uuid, username));
+    // Search a single batch of usernames, backing off if rate limited.
+    // Returns map of lowercased username to UuidDisplayName.
+    private Map<String, UuidDisplayName> searchBatch(List<String> batch) throws IOException, ParseException, InterruptedException {
+        List<Profile> searchResult = null;
+        long backoff = INITIAL_BACKOFF;
+        long start = System.nanoTime();
+        try {
+            for (int attempt = 0; searchResult == null; attempt++) {
+                try {
+                    searchResult = searchProfiles(batch);
+                }
+                catch (RateLimitedException e) {
+                    if (attempt >= MAX_RATE_LIMITED_RETRIES)
+                        throw e;
+                    Thread.sleep(backoff);
+                    backoff *= 2;
+                }
             }
         }
+        finally {
+            recordLoad(start, searchResult != null);
+        }
+
+        Map<String, UuidDisplayName> result = new LinkedHashMap<>();
+        for (Profile profile : searchResult) {
+            String username = profile.getName();
+            UUID uuid;
+            try {
+                uuid = uncanonicalizeUuid(profile.getId());
+            }
+            catch (IllegalArgumentException e) {
+                continue;
+            }
+            result.put(username.toLowerCase(), new UuidDisplayName(uuid, username));
+        }
 
         return result;
     }
@@ -111,7 +586,9 @@ public class MojangUuidResolver implements UuidResolver {
         if (uuid == null)
             throw new IllegalArgumentException("uuid cannot be null");
 
-        cache.asMap().put(username.toLowerCase(), new UuidDisplayName(uuid, username));
+        UuidDisplayName udn = new UuidDisplayName(uuid, username);
+        cache.put(username.toLowerCase(), new CacheEntry(udn));
+        remember(udn);
     }
 
     @Override
@@ -125,13 +602,43 @@ public class MojangUuidResolver implements UuidResolver {
     @Override
     public void invalidateAll() {
         cache.invalidateAll();
+        reverseCache.invalidateAll();
+    }
+
+    @Override
+    public UuidDisplayName resolveUuid(UUID uuid) {
+        if (uuid == null)
+            throw new IllegalArgumentException("uuid cannot be null");
+
+        return reverseCache.getIfPresent(uuid);
+    }
+
+    // Remember a resolved username beyond the cache's lifetime
+    private void remember(UuidDisplayName udn) {
+        reverseCache.put(udn.getUuid(), udn);
+        Cache<String, UuidDisplayName> staleCache = this.staleCache;
+        if (staleCache != null)
+            staleCache.put(udn.getDisplayName().toLowerCase(), udn);
+    }
+
+    // Cache the result of a lookup. udn may be null if not found.
+    private void cacheResult(String key, UuidDisplayName udn) {
+        if (udn != null) remember(udn);
+        cache.put(key, new CacheEntry(udn));
     }
 
-    private UuidDisplayName _resolve(String username) throws IOException, ParseException {
+    private UuidDisplayName _resolve(String username) throws IOException, ParseException, InterruptedException {
         if (!hasText(username))
             throw new IllegalArgumentException("username must have a value");
 
-        List<Profile> result = searchProfiles(Collections.singletonList(username));
+        List<Profile> result = null;
+        long start = System.nanoTime();
+        try {
+            result = searchProfiles(Collections.singletonList(username));
+        }
+        finally {
+            recordLoad(start, result != null);
+        }
 
         if (result.size() < 1) return null;
 
@@ -152,18 +659,63 @@ public class MojangUuidResolver implements UuidResolver {
         return new UuidDisplayName(uuid, displayName);
     }
 
-    private List<Profile> searchProfiles(List<String> usernames) throws IOException, ParseException {
+    // Record a request that began at the given System.nanoTime()
+    private void recordLoad(long start, boolean success) {
+        long loadTime = System.nanoTime() - start;
+        if (success)
+            stats.recordLoadSuccess(loadTime);
+        else
+            stats.recordLoadException(loadTime);
+    }
+
+    private List<Profile> searchProfiles(List<String> usernames) throws IOException, ParseException, InterruptedException {
+        long timeout = latencyTracker.getTimeout();
+
+        if (!inFlightRequests.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+            throw new IOException("Too many requests to Mojang in flight");
+        try {
+            CircuitBreaker circuitBreaker = this.circuitBreaker;
+            if (!circuitBreaker.allowRequest())
+                throw new CircuitOpenException();
+
+            boolean success = false;
+            try {
+                if (rateLimiter != null)
+                    rateLimiter.acquire();
+
+                long start = System.nanoTime();
+                List<Profile> result = searchProfiles(usernames, (int)timeout);
+                latencyTracker.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                success = true;
+                return result;
+            }
+            catch (RateLimitedException e) {
+                success = true; // Mojang is up, just busy
+                throw e;
+            }
+            finally {
+                if (success)
+                    circuitBreaker.recordSuccess();
+                else
+                    circuitBreaker.recordFailure();
+            }
+        }
+        finally {
+            inFlightRequests.release();
+        }
+    }
+
+    private List<Profile> searchProfiles(List<String> usernames, int timeout) throws IOException, ParseException {
         String body = JSONValue.toJSONString(usernames);
 
-        URL url = new URL("https://api.mojang.com/profiles/" + AGENT);
-        HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        HttpURLConnection connection = (HttpURLConnection)profilesUrl.openConnection();
         connection.setRequestMethod("POST");
         connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
 
         connection.setUseCaches(false);
         connection.setDoOutput(true);
-        connection.setConnectTimeout(15000);
-        connection.setReadTimeout(15000);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
         
         DataOutputStream writer = new DataOutputStream(connection.getOutputStream());
         try {
@@ -174,6 +726,9 @@ public class MojangUuidResolver implements UuidResolver {
             writer.close();
         }
 
+        if (connection.getResponseCode() == HTTP_TOO_MANY_REQUESTS)
+            throw new RateLimitedException();
+
         Reader reader = new InputStreamReader(connection.getInputStream());
         JSONArray profiles;
         try {
@@ -198,6 +753,65 @@ public class MojangUuidResolver implements UuidResolver {
         return result;
     }
 
+    // Returns the cached entry for the lowercased username, or null if there
+    // is none or it has expired. Entries that have outlived their TTL are
+    // refreshed in the background. Counts as one hit or miss.
+    private CacheEntry getCached(String key) {
+        CacheEntry entry = cache.getIfPresent(key);
+        if (entry != null) {
+            long ttl = entry.udn != null ? positiveTtl : negativeTtl;
+            long age = System.currentTimeMillis() - entry.loadedAt;
+            if (age >= MAX_STALE_TTLS * ttl) {
+                if (cache.asMap().remove(key, entry))
+                    stats.recordEviction();
+                entry = null;
+            }
+            else if (age >= ttl)
+                cache.refresh(key); // Does nothing if already refreshing
+        }
+
+        if (entry != null)
+            stats.recordHits(1);
+        else
+            stats.recordMisses(1);
+        return entry;
+    }
+
+    private static class CacheEntry {
+
+        // null if not found
+        private final UuidDisplayName udn;
+
+        private final long loadedAt = System.currentTimeMillis();
+
+        private CacheEntry(UuidDisplayName udn) {
+            this.udn = udn;
+        }
+
+    }
+
+    // Thrown when Mojang responds with 429 Too Many Requests
+    private static class RateLimitedException extends IOException {
+
+        private static final long serialVersionUID = -5437426563264409563L;
+
+        private RateLimitedException() {
+            super("Rate limited by Mojang");
+        }
+
+    }
+
+    // Thrown when requests are refused by the circuit breaker
+    private static class CircuitOpenException extends IOException {
+
+        private static final long serialVersionUID = 2208367311390208474L;
+
+        private CircuitOpenException() {
+            super("Too many failed requests to Mojang, not trying again yet");
+        }
+
+    }
+
     private static class Profile {
         
         private final String id;
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+/**
+ * Implemented by UuidResolvers that can also remember usernames that do not
+ * exist. {@link CascadingUuidResolver} does not look any further for
+ * usernames such a UuidResolver remembers as not found.
+ * 
+ * @author zerothangel
+ */
+public interface NegativeCachingUuidResolver {
+
+    /**
+     * Returns whether or not the username is remembered as not existing.
+     * Must not block.
+     * 
+     * @param username the username
+     * @return true if the username was given to {@link #preloadNotFound(String)}
+     *     and has not expired
+     */
+    public boolean isNotFound(String username);
+
+    /**
+     * Remember that the username does not exist.
+     * 
+     * @param username the username
+     */
+    public void preloadNotFound(String username);
+
+}
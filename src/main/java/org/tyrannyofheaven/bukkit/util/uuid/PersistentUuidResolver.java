@@ -0,0 +1,516 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * UuidResolver that remembers username-to-UUID mappings in a local file so
+ * that they survive restarts. It never performs remote lookups, so it is
+ * meant to be the first UuidResolver of a {@link CascadingUuidResolver},
+ * which feeds it through {@link #preload(String, UUID)}.
+ * 
+ * <p>The file is an append-only log of entries, loaded on first use. It is
+ * rewritten without superseded and expired entries once they make up most
+ * of the file. Changes are written by a background thread, so preloading
+ * never waits on the disk. A file that cannot be read is renamed with a
+ * <code>.bad</code> suffix and replaced.
+ * 
+ * @author zerothangel
+ */
+public class PersistentUuidResolver implements UuidResolver, ReverseUuidResolver, NegativeCachingUuidResolver {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_FOUND = 0;
+
+    private static final byte TYPE_NOT_FOUND = 1;
+
+    private static final byte TYPE_REMOVED = 2;
+
+    // Don't bother compacting files with fewer records than this
+    private static final int MIN_COMPACT_RECORDS = 1000;
+
+    // How long the writer thread lingers once there is nothing to write
+    private static final long WRITER_KEEP_ALIVE = 5000L; // milliseconds
+
+    private final File file;
+
+    private final long ttl;
+
+    // Entries by lowercased username
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Last-known display names by UUID. Rebuilt from entries on compaction.
+    private final ConcurrentMap<UUID, UuidDisplayName> reverseEntries = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    // Performs all file writes, in order
+    private final ThreadPoolExecutor writer;
+
+    private final Object fileLock = new Object();
+
+    private DataOutputStream out; // guarded by fileLock
+
+    private int records; // guarded by fileLock
+
+    // Set if an unreadable file could not be replaced. Nothing more is
+    // written to it.
+    private boolean failed; // guarded by fileLock
+
+    /**
+     * Create a PersistentUuidResolver.
+     * 
+     * @param file the file to store mappings in. Created if it does not exist.
+     * @param ttl how long to remember mappings
+     * @param ttlUnit unit of ttl
+     */
+    public PersistentUuidResolver(File file, long ttl, TimeUnit ttlUnit) {
+        if (file == null)
+            throw new IllegalArgumentException("file cannot be null");
+        if (ttlUnit == null)
+            throw new IllegalArgumentException("ttlUnit cannot be null");
+
+        this.file = file;
+        this.ttl = ttlUnit.toMillis(ttl);
+
+        writer = new ThreadPoolExecutor(1, 1, WRITER_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                .setNameFormat("PersistentUuidResolver-%d")
+                .setDaemon(true)
+                .build());
+        writer.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public UuidDisplayName resolve(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        Entry entry = getEntry(username.toLowerCase());
+        return entry != null ? entry.udn : null;
+    }
+
+    @Override
+    public UuidDisplayName resolve(String username, boolean cacheOnly) {
+        return resolve(username); // Everything is cached
+    }
+
+    @Override
+    public Map<String, UuidDisplayName> resolve(Collection<String> usernames) throws Exception {
+        if (usernames == null)
+            throw new IllegalArgumentException("usernames cannot be null");
+
+        Map<String, UuidDisplayName> result = new LinkedHashMap<>();
+        for (String username : usernames) {
+            String key = username.toLowerCase();
+            Entry entry = getEntry(key);
+            if (entry != null && entry.udn != null)
+                result.put(key, entry.udn);
+        }
+        return result;
+    }
+
+    @Override
+    public UuidDisplayName resolveUuid(UUID uuid) {
+        if (uuid == null)
+            throw new IllegalArgumentException("uuid cannot be null");
+
+        ensureLoaded();
+        return reverseEntries.get(uuid);
+    }
+
+    @Override
+    public boolean isNotFound(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        Entry entry = getEntry(username.toLowerCase());
+        return entry != null && entry.udn == null;
+    }
+
+    @Override
+    public void preload(String username, UUID uuid) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+        if (uuid == null)
+            throw new IllegalArgumentException("uuid cannot be null");
+
+        Entry existing = getEntry(username.toLowerCase());
+        if (existing != null && existing.udn != null && existing.udn.getUuid().equals(uuid) && username.equals(existing.udn.getDisplayName()))
+            return; // Nothing new
+
+        put(username.toLowerCase(), new Entry(new UuidDisplayName(uuid, username), System.currentTimeMillis()));
+    }
+
+    @Override
+    public void preloadNotFound(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        put(username.toLowerCase(), new Entry(null, System.currentTimeMillis()));
+    }
+
+    @Override
+    public synchronized void invalidate(String username) {
+        if (!hasText(username))
+            throw new IllegalArgumentException("username must have a value");
+
+        ensureLoaded();
+        final String key = username.toLowerCase();
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            if (entry.udn != null)
+                reverseEntries.remove(entry.udn.getUuid(), entry.udn);
+            write(new FileOperation() {
+                @Override
+                public boolean run() throws IOException {
+                    append(key, null, TYPE_REMOVED);
+                    return false;
+                }
+            });
+        }
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        entries.clear();
+        reverseEntries.clear();
+        loaded = true;
+        write(new FileOperation() {
+            @Override
+            public boolean run() throws IOException {
+                closeOutput();
+                writeFile(file);
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Wait for pending writes and close the underlying file. It will be
+     * re-opened if needed.
+     */
+    public void close() {
+        write(new FileOperation() {
+            @Override
+            public boolean run() throws IOException {
+                closeOutput();
+                return false;
+            }
+        });
+        flush();
+    }
+
+    // Wait for pending writes
+    void flush() {
+        try {
+            Uninterruptibles.getUninterruptibly(writer.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Nothing to do
+                }
+            }));
+        }
+        catch (ExecutionException e) {
+            throw new AssertionError(e); // Can't happen
+        }
+    }
+
+    // Returns the unexpired entry for the lowercased username, if any
+    private Entry getEntry(String key) {
+        ensureLoaded();
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.timestamp > ttl;
+    }
+
+    private synchronized void put(final String key, final Entry entry) {
+        ensureLoaded();
+        entries.put(key, entry);
+        if (entry.udn != null)
+            reverseEntries.put(entry.udn.getUuid(), entry.udn);
+        write(new FileOperation() {
+            @Override
+            public boolean run() throws IOException {
+                append(key, entry, entry.udn != null ? TYPE_FOUND : TYPE_NOT_FOUND);
+                if (records >= MIN_COMPACT_RECORDS && records > 2 * entries.size()) {
+                    compact();
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    // Queue a file operation for the writer thread. Operations are queued
+    // in the same order as the changes to entries they record.
+    private void write(final FileOperation operation) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean compacted = false;
+                synchronized (fileLock) {
+                    if (failed) return;
+                    try {
+                        compacted = operation.run();
+                    }
+                    catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                if (compacted) {
+                    synchronized (PersistentUuidResolver.this) {
+                        rebuildReverseEntries();
+                    }
+                }
+            }
+        });
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    synchronized (fileLock) {
+                        try {
+                            load();
+                        }
+                        catch (IOException e) {
+                            e.printStackTrace();
+                            recover();
+                        }
+                    }
+                    rebuildReverseEntries();
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    // Set aside a file that could not be read and replace it with whatever
+    // was read, so that new records aren't appended after the bad data
+    private void recover() {
+        try {
+            closeOutput();
+            Files.move(file.toPath(), new File(file.getPath() + ".bad").toPath(), StandardCopyOption.REPLACE_EXISTING);
+            compact();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+
+    // Read the file, if it exists
+    private void load() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        catch (FileNotFoundException e) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean truncated = false;
+        try {
+            if (in.readInt() != FORMAT_VERSION)
+                throw new IOException("Unknown format version in " + file);
+
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                try {
+                    String key = in.readUTF();
+                    if (type == TYPE_REMOVED) {
+                        entries.remove(key);
+                    }
+                    else {
+                        long timestamp = in.readLong();
+                        UuidDisplayName udn = null;
+                        if (type == TYPE_FOUND) {
+                            UUID uuid = new UUID(in.readLong(), in.readLong());
+                            udn = new UuidDisplayName(uuid, in.readUTF());
+                        }
+                        Entry entry = new Entry(udn, timestamp);
+                        if (isExpired(entry, now))
+                            entries.remove(key);
+                        else
+                            entries.put(key, entry);
+                    }
+                    records++;
+                }
+                catch (EOFException e) {
+                    // Partially-written record, probably from a crash
+                    truncated = true;
+                    break;
+                }
+            }
+        }
+        catch (EOFException e) {
+            // Header incomplete
+            truncated = true;
+        }
+        finally {
+            in.close();
+        }
+
+        if (truncated || (records >= MIN_COMPACT_RECORDS && records > 2 * entries.size()))
+            compact();
+    }
+
+    // Append a record, writing the header if the file is new
+    private void append(String key, Entry entry, byte type) throws IOException {
+        if (out == null) {
+            boolean exists = file.exists() && file.length() > 0L;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (!exists)
+                out.writeInt(FORMAT_VERSION);
+        }
+
+        writeRecord(out, key, entry, type);
+        out.flush();
+        records++;
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, Entry entry, byte type) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(key);
+        if (type != TYPE_REMOVED) {
+            out.writeLong(entry.timestamp);
+            if (type == TYPE_FOUND) {
+                out.writeLong(entry.udn.getUuid().getMostSignificantBits());
+                out.writeLong(entry.udn.getUuid().getLeastSignificantBits());
+                out.writeUTF(entry.udn.getDisplayName());
+            }
+        }
+    }
+
+    // Rewrite the file with only the current entries
+    private void compact() throws IOException {
+        closeOutput();
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        writeFile(tempFile);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Drop reverse entries for mappings that are no longer present
+    private void rebuildReverseEntries() {
+        Map<UUID, UuidDisplayName> live = new HashMap<>();
+        for (Entry entry : entries.values()) {
+            if (entry.udn != null)
+                live.put(entry.udn.getUuid(), entry.udn);
+        }
+        reverseEntries.putAll(live);
+        reverseEntries.keySet().retainAll(live.keySet());
+    }
+
+    // Write all unexpired entries to the given file
+    private void writeFile(File destination) throws IOException {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        DataOutputStream tempOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destination)));
+        try {
+            tempOut.writeInt(FORMAT_VERSION);
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry entry = me.getValue();
+                if (isExpired(entry, now))
+                    continue;
+                writeRecord(tempOut, me.getKey(), entry, entry.udn != null ? TYPE_FOUND : TYPE_NOT_FOUND);
+                count++;
+            }
+        }
+        finally {
+            tempOut.close();
+        }
+        records = count;
+    }
+
+    private void closeOutput() throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            }
+            finally {
+                out = null;
+            }
+        }
+    }
+
+    // A change to the file. Returns true if the file was compacted.
+    private static interface FileOperation {
+
+        public boolean run() throws IOException;
+
+    }
+
+    private static class Entry {
+
+        // null if not found
+        private final UuidDisplayName udn;
+
+        private final long timestamp;
+
+        private Entry(UuidDisplayName udn, long timestamp) {
+            this.udn = udn;
+            this.timestamp = timestamp;
+        }
+
+    }
+
+}
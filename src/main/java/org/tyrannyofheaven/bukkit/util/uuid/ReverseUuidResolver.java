@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import java.util.UUID;
+
+/**
+ * Implemented by UuidResolvers that can also map UUIDs back to their
+ * last-known display names.
+ * 
+ * @author zerothangel
+ */
+public interface ReverseUuidResolver {
+
+    /**
+     * Looks up the last-known display name of a UUID. Must not block.
+     * 
+     * @param uuid the UUID
+     * @return a {@link UuidDisplayName} instance with the last-known display
+     *     name, or null if the UUID has not been seen
+     */
+    public UuidDisplayName resolveUuid(UUID uuid);
+
+}
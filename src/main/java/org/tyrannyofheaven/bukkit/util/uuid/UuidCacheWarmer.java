@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.uuid;
+
+import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Keeps a {@link UuidResolver}'s cache warm by preloading the authoritative
+ * username-to-UUID mapping of every player that logs in. Combined with
+ * {@link #preloadOfflinePlayers(long, TimeUnit)} at startup, most lookups by
+ * {@link CommandUuidResolver} can then be answered from the cache.
+ * 
+ * @author zerothangel
+ */
+public class UuidCacheWarmer implements Listener {
+
+    private final Plugin plugin;
+
+    private final UuidResolver uuidResolver;
+
+    /**
+     * Create a UuidCacheWarmer and register it for player events.
+     * 
+     * @param plugin the plugin to register events with
+     * @param uuidResolver the UuidResolver to preload
+     */
+    public UuidCacheWarmer(Plugin plugin, UuidResolver uuidResolver) {
+        if (plugin == null)
+            throw new IllegalArgumentException("plugin cannot be null");
+        if (uuidResolver == null)
+            throw new IllegalArgumentException("uuidResolver cannot be null");
+
+        this.plugin = plugin;
+        this.uuidResolver = uuidResolver;
+
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Preload mappings for offline players that have played recently. The
+     * server's offline players are enumerated and preloaded in the
+     * background, since enumerating them reads every player's data file.
+     * 
+     * @param maxAge only players that have played within this long are
+     *     preloaded
+     * @param maxAgeUnit unit of maxAge
+     */
+    public void preloadOfflinePlayers(long maxAge, TimeUnit maxAgeUnit) {
+        if (maxAgeUnit == null)
+            throw new IllegalArgumentException("maxAgeUnit cannot be null");
+
+        final long cutoff = System.currentTimeMillis() - maxAgeUnit.toMillis(maxAge);
+
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                for (OfflinePlayer player : plugin.getServer().getOfflinePlayers()) {
+                    if (player.getLastPlayed() < cutoff || player.getUniqueId() == null || !hasText(player.getName()))
+                        continue;
+                    uuidResolver.preload(player.getName(), player.getUniqueId());
+                }
+            }
+        });
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        // NB Runs off the main thread, so slow resolvers don't hold up the server
+        if (event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED && event.getUniqueId() != null && hasText(event.getName()))
+            uuidResolver.preload(event.getName(), event.getUniqueId());
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        // Usually the same as at pre-login. But behind a proxy, the UUID is
+        // only final at this point.
+        Player player = event.getPlayer();
+        final String name = player.getName();
+        final UUID uuid = player.getUniqueId();
+
+        // Preload in the background so slow resolvers don't hold up the server
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                uuidResolver.preload(name, uuid);
+            }
+        });
+    }
+
+}
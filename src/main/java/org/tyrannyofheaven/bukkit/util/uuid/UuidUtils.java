@@ -19,6 +19,8 @@ import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.google.common.base.Charsets;
+
 public class UuidUtils {
 
     public static final Pattern SHORT_UUID_RE = Pattern.compile("^\\p{XDigit}{32}$");
@@ -49,6 +51,16 @@ public class UuidUtils {
         return UUID.fromString(shortUuidToLong(shortUuid));
     }
 
+    /**
+     * Returns the UUID an offline-mode server assigns to the given username.
+     * 
+     * @param username the username, which is case-sensitive
+     * @return the name-based UUID
+     */
+    public static UUID getOfflineUuid(String username) {
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + username).getBytes(Charsets.UTF_8));
+    }
+
     public static UuidDisplayName parseUuidDisplayName(String name) {
         Matcher m = UUID_NAME_RE.matcher(name);
         if (m.matches()) {
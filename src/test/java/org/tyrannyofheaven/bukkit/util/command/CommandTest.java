@@ -15,17 +15,28 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
 import org.bukkit.Server;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionAttachment;
 import org.bukkit.permissions.PermissionAttachmentInfo;
@@ -290,6 +301,88 @@ public class CommandTest {
         Assert.assertEquals("have flag with option = garply\nblah\n", out.toString()); out.delete(0, out.length());
     }
 
+    @Test
+    public void testCompiledInvocation() throws Throwable {
+        HandlerExecutor<MyPlugin> he = new HandlerExecutor<>(new MyPlugin(), new MyHandler());
+        he.setCompiledInvocation(true);
+
+        he.execute(dummySender, "hello", "hello", new String[] { "-f" });
+        Assert.assertEquals("Hello World!\nWith flag!\n", out.toString()); out.delete(0, out.length());
+
+        he.execute(dummySender, "greet", "greet", new String[] { "-o", "foo", "bar" });
+        Assert.assertEquals("Hello, bar\nWith option = foo!\n", out.toString()); out.delete(0, out.length());
+
+        // Sub-command
+        he.execute(dummySender, "foo", "foo", new String[] { "hello" });
+        Assert.assertEquals("Hello from the foo sub-command!\n", out.toString()); out.delete(0, out.length());
+
+        // Exceptions thrown by the handler must not be wrapped
+        boolean good = false;
+        try { he.execute(dummySender, "foo", "foo", new String[0]); } catch (ParseException e) { good = true; }
+        Assert.assertTrue(good);
+    }
+
+    public static class ConverterHandler {
+
+        @Command("add")
+        public void add(CommandSender sender, @Option("a") int a, @Option("b") Integer b) {
+            sender.sendMessage(Integer.toString(a + b));
+        }
+
+        @Command("uuid")
+        public void uuid(CommandSender sender, @Option("uuid") UUID uuid) {
+            sender.sendMessage(uuid.toString());
+        }
+
+    }
+
+    @Test
+    public void testTypeConverter() throws Throwable {
+        // Unregistered type
+        boolean good = false;
+        try { new HandlerExecutor<>(new MyPlugin(), new ConverterHandler()); } catch (CommandException e) { good = true; }
+        Assert.assertTrue(good);
+
+        Map<Class<?>, TypeConverter<?>> registry = TypeConverters.newRegistry();
+        registry.put(UUID.class, new TypeConverter<UUID>() {
+            @Override
+            public UUID convert(String text) {
+                return UUID.fromString(text);
+            }
+        });
+        HandlerExecutor<MyPlugin> he = new HandlerExecutor<>(new MyPlugin(), new DefaultUsageOptions(), registry, new ConverterHandler());
+
+        he.execute(dummySender, "add", "add", new String[] { "1", "2" });
+        Assert.assertEquals("3\n", out.toString()); out.delete(0, out.length());
+
+        good = false;
+        try { he.execute(dummySender, "add", "add", new String[] { "1", "two" }); } catch (ParseException e) { good = "Invalid number: b".equals(e.getMessage()); }
+        Assert.assertTrue(good);
+
+        UUID uuid = UUID.randomUUID();
+        he.execute(dummySender, "uuid", "uuid", new String[] { uuid.toString() });
+        Assert.assertEquals(uuid + "\n", out.toString()); out.delete(0, out.length());
+
+        good = false;
+        try { he.execute(dummySender, "uuid", "uuid", new String[] { "garply" }); } catch (ParseException e) { good = "Invalid value: uuid".equals(e.getMessage()); }
+        Assert.assertTrue(good);
+    }
+
+    @Test
+    public void testProcessingFailure() throws Throwable {
+        ToHCommandExecutor<MyPlugin> executor = new ToHCommandExecutor<>(new MyPlugin(), new ConverterHandler());
+
+        // Reported at registration
+        CommandException first = null;
+        try { executor.registerCommands(); } catch (CommandException e) { first = e; }
+        Assert.assertNotNull(first);
+
+        // Processing is not retried
+        CommandException second = null;
+        try { executor.registerCommands(); } catch (CommandException e) { second = e; }
+        Assert.assertSame(first, second);
+    }
+
     @Test
     public void testTabCompletion() throws Throwable {
         TypeCompleter myTypeCompleter = new TypeCompleter() {
@@ -357,6 +450,17 @@ public class CommandTest {
         testCompletions(he.getTabCompletions(dummySender, "bar", "bar", new String[] { "foo", "greet", "-o", "" }, null, null, typeCompleterRegistry),
                 "<option>");
         
+        // Sub-command name from the returned handler
+        Assert.assertEquals(Collections.singletonList("hello"), he.getTabCompletions(dummySender, "baz", "baz", new String[] { "" }, null, null, typeCompleterRegistry));
+        testCompletions(he.getTabCompletions(dummySender, "baz", "baz", new String[] { "HE" }, null, null, typeCompleterRegistry),
+                "hello");
+        testCompletions(he.getTabCompletions(dummySender, "baz", "baz", new String[] { "x" }, null, null, typeCompleterRegistry));
+
+        // Declared sub-handler, method must not be invoked
+        testCompletions(he.getTabCompletions(dummySender, "qux", "qux", new String[] { "h" }, null, null, typeCompleterRegistry),
+                "hello");
+        testCompletions(he.getTabCompletions(dummySender, "qux", "qux", new String[] { "hello", "" }, null, null, typeCompleterRegistry));
+
         // Varargs
         testCompletions(he.getTabCompletions(dummySender, "say", "say", new String[] { "" }, null, null, typeCompleterRegistry),
                 "ZerothAngel");
@@ -365,6 +469,207 @@ public class CommandTest {
                 "ZerothAngel");
     }
 
+    @Test
+    public void testPrefixTrie() throws Throwable {
+        PrefixTrie trie = new PrefixTrie();
+        trie.add("foo");
+        trie.add("Foo");
+        trie.add("bar");
+        trie.add("foo");
+
+        // Names differing by case are kept, in their original case
+        testCompletions(trie.getMatches("F"), "foo", "Foo");
+        Assert.assertEquals(2, trie.getMatches("fo").size());
+        Assert.assertTrue(trie.contains("Foo"));
+        Assert.assertFalse(trie.contains("FOO"));
+        Assert.assertTrue(trie.getMatches("x").isEmpty());
+
+        // Aliases are not offered
+        testCompletions(he.getCommandCompletions(dummySender, "gre"), "greet");
+    }
+
+    @Test
+    public void testAsyncTypeCompleter() throws Throwable {
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            TypeCompleter typeCompleter = new AsyncTypeCompleter(createSlowTypeCompleter(latch), executorService, 200L, TimeUnit.MILLISECONDS);
+
+            // Fast query
+            testCompletions(typeCompleter.complete(String.class, null, dummySender, ""),
+                    "Steve", "ZerothAngel", "Zed");
+
+            // Slow query falls back to last result, filtered
+            testCompletions(typeCompleter.complete(String.class, null, dummySender, "s"),
+                    "Steve");
+
+            // Last result is not used for a different type or argument
+            testCompletions(typeCompleter.complete(String.class, "other", dummySender, "s"));
+            testCompletions(typeCompleter.complete(Integer.class, null, dummySender, "s"));
+
+            // Same query waits on the pending one
+            latch.countDown();
+            testCompletions(typeCompleter.complete(String.class, null, dummySender, "s"),
+                    "Steve", "ZerothAngel", "Zed");
+
+            // Last result is not used for a different prefix
+            latch = new CountDownLatch(1);
+            typeCompleter = new AsyncTypeCompleter(createSlowTypeCompleter(latch), executorService, 200L, TimeUnit.MILLISECONDS);
+            testCompletions(typeCompleter.complete(String.class, null, dummySender, "z"),
+                    "Steve", "ZerothAngel", "Zed");
+            testCompletions(typeCompleter.complete(String.class, null, dummySender, "s"));
+            latch.countDown();
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    // TypeCompleter that blocks on the latch when completing "s"
+    private static TypeCompleter createSlowTypeCompleter(final CountDownLatch latch) {
+        return new TypeCompleter() {
+            @Override
+            public List<String> complete(Class<?> clazz, String arg, CommandSender sender, String partial) {
+                if ("s".equals(partial)) {
+                    try {
+                        latch.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return Arrays.asList("Steve", "ZerothAngel", "Zed");
+            }
+        };
+    }
+
+    @Test
+    public void testCompletionCache() throws Throwable {
+        CompletionCache cache = new CompletionCache(10, 1L, TimeUnit.MINUTES);
+        cache.put(dummySender, "greet", new String[] { "-o", "z" }, Arrays.asList("ZerothAngel", "Zed"));
+
+        // Extended query is narrowed
+        testCompletions(cache.get(dummySender, "greet", new String[] { "-o", "zED" }), "Zed");
+        testCompletions(cache.get(dummySender, "greet", new String[] { "-o", "zero" }), "ZerothAngel");
+
+        // Different command, path or shorter query must be recomputed
+        Assert.assertNull(cache.get(dummySender, "say", new String[] { "-o", "ze" }));
+        Assert.assertNull(cache.get(dummySender, "greet", new String[] { "ze" }));
+        Assert.assertNull(cache.get(dummySender, "greet", new String[] { "-o", "" }));
+
+        cache.invalidate(dummySender);
+        Assert.assertNull(cache.get(dummySender, "greet", new String[] { "-o", "ze" }));
+
+        // Truncated results are never narrowed
+        cache.put(dummySender, "greet", new String[] { "-o", "z" }, new TruncatedCompletions(Arrays.asList("ZerothAngel")));
+        Assert.assertNull(cache.get(dummySender, "greet", new String[] { "-o", "ze" }));
+    }
+
+    @Test
+    public void testQuoteAwareSplitter() throws Throwable {
+        String[] args = new String[] { "foo", "bar" };
+        Assert.assertSame(args, QuoteAwareSplitter.split(args));
+        Assert.assertTrue(Arrays.equals(new String[] { "foo", "bar" }, QuoteAwareSplitter.split(new String[] { "", "foo", "", "bar", "" })));
+        Assert.assertTrue(Arrays.equals(new String[] { "foo", "bar  baz", "a\"b\\c" }, QuoteAwareSplitter.split(new String[] { "foo", "\"bar", "", "baz\"", "a\\\"b\\\\c" })));
+        Assert.assertTrue(Arrays.equals(new String[] { "foo\\ bar" }, QuoteAwareSplitter.split(new String[] { "foo\\", "bar" })));
+
+        boolean good = false;
+        try { QuoteAwareSplitter.split(new String[] { "\"foo", "bar" }); } catch (ParseException e) { good = true; }
+        Assert.assertTrue(good);
+
+        // Query is left untouched
+        Assert.assertTrue(Arrays.equals(new String[] { "" }, QuoteAwareSplitter.splitForCompletion(new String[0])));
+        Assert.assertTrue(Arrays.equals(new String[] { "foo bar", "\"b" }, QuoteAwareSplitter.splitForCompletion(new String[] { "\"foo", "bar\"", "\"b" })));
+        Assert.assertTrue(Arrays.equals(new String[] { "foo bar", "" }, QuoteAwareSplitter.splitForCompletion(new String[] { "\"foo", "bar", "" })));
+    }
+
+    @Test
+    public void testCommandMetrics() throws Throwable {
+        CommandMetrics metrics = new CommandMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.record("foo hello", i * 1000L, CommandMetrics.Outcome.SUCCESS);
+        }
+        metrics.record("bar", 1000000L, CommandMetrics.Outcome.PARSE_FAILURE);
+        metrics.record("bar", 2000000L, CommandMetrics.Outcome.PERMISSION_DENIED);
+        metrics.record("bar", 3000000L, CommandMetrics.Outcome.EXCEPTION);
+
+        CommandStats cs = metrics.getStats("foo hello");
+        Assert.assertEquals(100L, cs.getCount());
+        Assert.assertEquals(5050000L, cs.getTotalTime());
+        Assert.assertEquals(0L, cs.getExceptions());
+        // Within bucket precision
+        Assert.assertTrue(cs.getPercentile(50.0) >= 50000L && cs.getPercentile(50.0) < 50000L * 9 / 8);
+        Assert.assertTrue(cs.getPercentile(100.0) >= 100000L && cs.getPercentile(100.0) < 100000L * 9 / 8);
+
+        cs = metrics.getStats("bar");
+        Assert.assertEquals(1L, cs.getParseFailures());
+        Assert.assertEquals(1L, cs.getPermissionDenials());
+        Assert.assertEquals(1L, cs.getExceptions());
+
+        List<CommandStats> top = metrics.getTopByTotalTime(1);
+        Assert.assertEquals(1, top.size());
+        Assert.assertEquals("bar", top.get(0).getPath());
+
+        metrics.reset();
+        Assert.assertNull(metrics.getStats("bar"));
+
+        // Paths use primary command names, not aliases
+        InvocationChain invChain = new InvocationChain();
+        he.execute(dummySender, "foo", "foo", new String[] { "hi" }, invChain, new CommandSession());
+        Assert.assertEquals("Hello from the foo sub-command!\n", out.toString()); out.delete(0, out.length());
+        Assert.assertEquals("foo hello", invChain.getPath("foo"));
+    }
+
+    @Test
+    public void testIndexedPlayerTypeCompleter() throws Throwable {
+        IndexedPlayerTypeCompleter completer = new IndexedPlayerTypeCompleter(2, false);
+        Player alice = createPlayer("Alice");
+        Player albert = createPlayer("Albert");
+        Player bob = createPlayer("Bob");
+        completer.onPlayerJoin(new PlayerJoinEvent(alice, null));
+        completer.onPlayerJoin(new PlayerJoinEvent(albert, null));
+        completer.onPlayerJoin(new PlayerJoinEvent(bob, null));
+
+        // Prefix lookup
+        testCompletions(completer.complete(String.class, null, null, "al"), "Alice", "Albert");
+        testCompletions(completer.complete(String.class, null, null, "B"), "Bob");
+        testCompletions(completer.complete(String.class, null, null, "c"));
+        Assert.assertTrue(completer.complete(Integer.class, null, null, "a").isEmpty());
+
+        // Limit
+        Assert.assertFalse(completer.complete(String.class, null, null, "al") instanceof TruncatedCompletions);
+        List<String> result = completer.complete(String.class, null, null, "");
+        Assert.assertTrue(result instanceof TruncatedCompletions);
+        Assert.assertEquals(2, result.size());
+
+        // Quit
+        completer.onPlayerQuit(new PlayerQuitEvent(albert, null));
+        testCompletions(completer.complete(String.class, null, null, "al"), "Alice");
+
+        // Stale quit does not remove a newer instance
+        Player alice2 = createPlayer("Alice");
+        completer.onPlayerJoin(new PlayerJoinEvent(alice2, null));
+        completer.onPlayerQuit(new PlayerQuitEvent(alice, null));
+        testCompletions(completer.complete(String.class, null, null, "al"), "Alice");
+        completer.onPlayerQuit(new PlayerQuitEvent(alice2, null));
+        testCompletions(completer.complete(String.class, null, null, "al"));
+    }
+
+    private static Player createPlayer(final String name) {
+        return (Player)Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getName".equals(method.getName()))
+                    return name;
+                else if ("equals".equals(method.getName()))
+                    return proxy == args[0];
+                else if ("hashCode".equals(method.getName()))
+                    return System.identityHashCode(proxy);
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
     private void testCompletions(List<String> actual, String... expected) throws Throwable {
         Set<String> actualSet = new HashSet<>(actual);
         Set<String> expectedSet = new HashSet<>(Arrays.asList(expected));
@@ -59,10 +59,20 @@ public class MyHandler {
         return fooHandler;
     }
 
+    @Command("baz")
+    public FooHandler baz() {
+        return fooHandler;
+    }
+
+    @Command(value="qux", subHandler=FooHandler.class)
+    public FooHandler qux() {
+        throw new AssertionError("qux should not be invoked during tab completion");
+    }
+
     // Sub-command handler
     public static class FooHandler {
         
-        @Command("hello")
+        @Command({"hello", "hi"})
         public void hello(CommandSender sender) {
             sender.sendMessage("Hello from the foo sub-command!");
         }
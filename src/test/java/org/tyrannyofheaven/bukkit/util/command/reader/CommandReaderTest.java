@@ -0,0 +1,333 @@
+/*
+ * Copyright 2026 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Server;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.junit.Before;
+import org.junit.Test;
+import org.tyrannyofheaven.bukkit.util.command.reader.CommandReader.CommandCall;
+
+public class CommandReaderTest {
+
+    // Messages sent to the sender
+    private final List<String> messages = new ArrayList<>();
+
+    // Arguments of each executed command
+    private final List<String> executed = new ArrayList<>();
+
+    private final CommandSender sender = proxy(CommandSender.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("sendMessage".equals(method.getName()) && args[0] instanceof String) {
+                messages.add((String)args[0]);
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    // Names passed to getPluginCommand
+    private final List<String> lookups = new ArrayList<>();
+
+    // The scheduled tick task, run by hand
+    private Runnable tickTask;
+
+    private boolean taskCancelled;
+
+    private final Plugin plugin = proxy(Plugin.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("getServer".equals(method.getName()))
+                return server;
+            else if ("isEnabled".equals(method.getName()))
+                return true;
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    private final Server server = proxy(Server.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("getScheduler".equals(method.getName()))
+                return scheduler;
+            else if ("getPluginCommand".equals(method.getName())) {
+                lookups.add((String)args[0]);
+                return "test".equals(args[0]) ? pluginCommand : null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    private final BukkitScheduler scheduler = proxy(BukkitScheduler.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("runTaskTimer".equals(method.getName())) {
+                tickTask = (Runnable)args[1];
+                return task;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    private final BukkitTask task = proxy(BukkitTask.class, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("cancel".equals(method.getName())) {
+                taskCancelled = true;
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    // Set by commands that cancel their own batch
+    private CommandBatch batch;
+
+    private final Command command = new Command("test") {
+        @Override
+        public boolean execute(CommandSender sender, String label, String[] args) {
+            executed.add(args[0]);
+            if ("sleep".equals(args[0]))
+                sleep();
+            else if ("cancel".equals(args[0]))
+                batch.cancel();
+            else if ("abort".equals(args[0]))
+                CommandReader.abortBatchProcessing();
+            return !"fail".equals(args[0]);
+        }
+    };
+
+    private PluginCommand pluginCommand;
+
+    @Before
+    public void setUp() throws Exception {
+        Constructor<PluginCommand> ctor = PluginCommand.class.getDeclaredConstructor(String.class, Plugin.class);
+        ctor.setAccessible(true);
+        pluginCommand = ctor.newInstance("test", plugin);
+        pluginCommand.setExecutor(new CommandExecutor() {
+            @Override
+            public boolean onCommand(CommandSender sender, Command cmd, String label, String[] args) {
+                return command.execute(sender, label, args);
+            }
+        });
+
+        messages.clear();
+        executed.clear();
+        lookups.clear();
+        tickTask = null;
+        taskCancelled = false;
+        batch = null;
+    }
+
+    @Test
+    public void testTickBudget() throws Exception {
+        // Budget exhausted by the first command: one command per tick
+        batch = start(TimeUnit.MILLISECONDS.toNanos(1L), "sleep", "sleep", "sleep");
+        tickTask.run();
+        assertEquals(1, batch.getExecutedCount());
+        tickTask.run();
+        assertEquals(2, batch.getExecutedCount());
+        assertFalse(batch.isDone());
+
+        // Generous budget: everything in one tick
+        setUp();
+        batch = start(TimeUnit.SECONDS.toNanos(60L), "a", "b", "c", "d");
+        tickTask.run();
+        assertEquals(4, batch.getExecutedCount());
+        assertEquals(CommandBatch.State.COMPLETED, batch.getState());
+    }
+
+    @Test
+    public void testCompletion() throws Exception {
+        batch = start(TimeUnit.SECONDS.toNanos(60L), "a", "b");
+        assertFalse(taskCancelled);
+        tickTask.run();
+        assertEquals(CommandBatch.State.COMPLETED, batch.getState());
+        assertTrue(batch.isDone());
+        assertTrue(taskCancelled);
+        assertEquals(2, batch.getTotalCount());
+        assertTrue(messages.get(messages.size() - 1).contains("Executed all 2 commands."));
+        assertFalse(CommandReader.isBatchProcessing());
+
+        // Failing command
+        setUp();
+        batch = start(TimeUnit.SECONDS.toNanos(60L), "a", "fail", "b");
+        tickTask.run();
+        assertEquals(CommandBatch.State.ABORTED, batch.getState());
+        assertEquals(2, executed.size());
+        assertTrue(taskCancelled);
+
+        // Aborting command
+        setUp();
+        batch = start(TimeUnit.SECONDS.toNanos(60L), "a", "abort", "b");
+        tickTask.run();
+        assertEquals(CommandBatch.State.ABORTED, batch.getState());
+        assertEquals(2, executed.size());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        // Cancel between ticks
+        batch = start(0L, "a", "b", "c");
+        tickTask.run();
+        assertTrue(batch.cancel());
+        assertFalse(batch.cancel());
+        assertEquals(CommandBatch.State.CANCELLED, batch.getState());
+        assertTrue(taskCancelled);
+        tickTask.run(); // Already-queued tick does nothing
+        assertEquals(1, executed.size());
+
+        // Cancel from within a tick stops it immediately
+        setUp();
+        batch = start(TimeUnit.SECONDS.toNanos(60L), "a", "cancel", "b", "c");
+        tickTask.run();
+        assertEquals(CommandBatch.State.CANCELLED, batch.getState());
+        assertEquals(2, executed.size());
+        assertTrue(taskCancelled);
+        assertTrue(messages.get(messages.size() - 1).contains("Cancelled after 2 of 4 commands."));
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        assertTrue(CommandReader.read(server, sender, input("# comment", "", "  test a  ", "/TEST b", "test c"), false));
+        assertEquals(Arrays.asList("a", "b", "c"), executed);
+        // Each command name is looked up once
+        assertEquals(Arrays.asList("test"), lookups);
+
+        // Unknown commands are reported before anything is executed
+        setUp();
+        try {
+            CommandReader.read(server, sender, input("test a", "# comment", "unknown b"), false);
+            fail();
+        }
+        catch (CommandReaderException e) {
+            assertEquals("Unknown command at line 3", e.getMessage());
+        }
+        assertTrue(executed.isEmpty());
+
+        // Aborting
+        setUp();
+        assertFalse(CommandReader.read(server, sender, input("test a", "test abort", "test b"), false));
+        assertEquals(Arrays.asList("a", "abort"), executed);
+    }
+
+    @Test
+    public void testReadStreaming() throws Exception {
+        File file = File.createTempFile("commands", ".txt");
+        try {
+            write(file, "# comment", "", "  test a  ", "/TEST b", "test c");
+            assertTrue(CommandReader.readStreaming(server, sender, file, false));
+            assertEquals(Arrays.asList("a", "b", "c"), executed);
+            assertEquals(Arrays.asList("test"), lookups);
+
+            // Unknown commands are reported before anything is executed
+            setUp();
+            write(file, "test a", "# comment", "unknown b");
+            try {
+                CommandReader.readStreaming(server, sender, file, false);
+                fail();
+            }
+            catch (CommandReaderException e) {
+                assertEquals("Unknown command at line 3", e.getMessage());
+            }
+            assertTrue(executed.isEmpty());
+
+            // Failing command
+            setUp();
+            write(file, "test a", "test fail", "test b");
+            assertFalse(CommandReader.readStreaming(server, sender, file, false));
+            assertEquals(Arrays.asList("a", "fail"), executed);
+            assertFalse(CommandReader.isBatchProcessing());
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static InputStream input(String... lines) {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void write(File file, String... lines) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private CommandBatch start(long budget, String... args) {
+        List<CommandCall> calls = new ArrayList<>();
+        for (String arg : args) {
+            calls.add(new CommandCall(command, "test", new String[] { arg }));
+        }
+        CommandBatch batch = new CommandBatch(plugin, sender, calls, false, budget);
+        batch.start();
+        return batch;
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(5L);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, handler));
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2026 ZerothAngel <zerothangel@tyrannyofheaven.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Transaction;
+
+public class TransactionTest {
+
+    // Transaction calls made on the EbeanServer
+    private final List<String> events = new ArrayList<>();
+
+    // Active transactions, innermost first
+    private final LinkedList<Transaction> transactions = new LinkedList<>();
+
+    private final EbeanServer ebeanServer = (EbeanServer)Proxy.newProxyInstance(EbeanServer.class.getClassLoader(), new Class<?>[] { EbeanServer.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+            case "currentTransaction":
+                return transactions.peek();
+            case "beginTransaction":
+                transactions.push(createTransaction());
+                break;
+            case "commitTransaction":
+                break;
+            case "endTransaction":
+                transactions.pop();
+                break;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+            }
+            events.add(method.getName());
+            return null;
+        }
+    });
+
+    private static final List<String> NEW_TRANSACTION = Arrays.asList("beginTransaction", "commitTransaction", "endTransaction");
+
+    private static final List<String> NO_TRANSACTION = Collections.emptyList();
+
+    @Before
+    public void setUp() {
+        events.clear();
+        transactions.clear();
+    }
+
+    @Test
+    public void testAvajeTransactionStrategy() {
+        testStrategy(new AvajeTransactionStrategy(ebeanServer), new AvajeTransactionStrategy(ebeanServer, null, null, true));
+    }
+
+    @Test
+    public void testRetryingAvajeTransactionStrategy() {
+        testStrategy(new RetryingAvajeTransactionStrategy(ebeanServer, 1), new RetryingAvajeTransactionStrategy(ebeanServer, 1, null, null, true));
+    }
+
+    private void testStrategy(TransactionStrategy strategy, TransactionStrategy joiningStrategy) {
+        // No active transaction: both begin their own
+        assertEquals("result", strategy.execute(callback()));
+        assertEquals(NEW_TRANSACTION, events);
+        events.clear();
+        assertEquals("result", joiningStrategy.execute(callback()));
+        assertEquals(NEW_TRANSACTION, events);
+        events.clear();
+
+        // Active transaction: only the joining strategy participates
+        Transaction outer = createTransaction();
+        transactions.push(outer);
+        assertEquals("result", strategy.execute(callback()));
+        assertEquals(NEW_TRANSACTION, events);
+        events.clear();
+        assertEquals("result", joiningStrategy.execute(callback()));
+        assertEquals(NO_TRANSACTION, events);
+
+        // Failures are left for the outer transaction to handle
+        try {
+            joiningStrategy.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                public void doInTransactionWithoutResult() throws Exception {
+                    throw new Exception("failed");
+                }
+            });
+            fail();
+        }
+        catch (TransactionException e) {
+            assertEquals("failed", e.getCause().getMessage());
+        }
+        assertEquals(NO_TRANSACTION, events);
+        assertSame(outer, transactions.peek());
+    }
+
+    private TransactionCallback<String> callback() {
+        return new TransactionCallback<String>() {
+            @Override
+            public String doInTransaction() throws Exception {
+                return "result";
+            }
+        };
+    }
+
+    private static Transaction createTransaction() {
+        return (Transaction)Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class<?>[] { Transaction.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+}
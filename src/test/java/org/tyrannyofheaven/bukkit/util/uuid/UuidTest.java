@@ -2,15 +2,66 @@ package org.tyrannyofheaven.bukkit.util.uuid;
 
 import static junit.framework.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.tyrannyofheaven.bukkit.util.uuid.UuidUtils.longUuidToShort;
 import static org.tyrannyofheaven.bukkit.util.uuid.UuidUtils.parseUuidDisplayName;
 import static org.tyrannyofheaven.bukkit.util.uuid.UuidUtils.shortUuidToLong;
 
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 import org.junit.Test;
 
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 public class UuidTest {
 
     @Test
@@ -61,4 +112,804 @@ public class UuidTest {
         assertEquals("ZerothAngel", udn.getDisplayName());
     }
 
+    @Test
+    public void testLookupCoalescer() throws Exception {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch firstLookup = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        LookupCoalescer coalescer = new LookupCoalescer(new LookupCoalescer.BatchLookup() {
+            @Override
+            public Map<String, UuidDisplayName> lookup(List<String> usernames) throws Exception {
+                batchSizes.add(usernames.size());
+                firstLookup.countDown();
+                release.await();
+                Map<String, UuidDisplayName> result = new HashMap<>();
+                for (String username : usernames) {
+                    if (!username.startsWith("missing"))
+                        result.put(username, new UuidDisplayName(UUID.randomUUID(), username));
+                }
+                return result;
+            }
+        }, 2, 10000L);
+        try {
+            // Fills a batch, which is flushed immediately and then blocks
+            List<ListenableFuture<UuidDisplayName>> futures = new ArrayList<>();
+            futures.add(coalescer.submit("a"));
+            futures.add(coalescer.submit("b"));
+            assertTrue(firstLookup.await(10L, TimeUnit.SECONDS));
+
+            // More than a batch's worth accumulates meanwhile
+            futures.add(coalescer.submit("c"));
+            futures.add(coalescer.submit("d"));
+            futures.add(coalescer.submit("missing"));
+            assertSame(futures.get(2), coalescer.submit("c"));
+            release.countDown();
+
+            for (int i = 0; i < futures.size(); i++) {
+                UuidDisplayName udn = futures.get(i).get(10L, TimeUnit.SECONDS);
+                if (i < 4)
+                    assertEquals(Arrays.asList("a", "b", "c", "d").get(i), udn.getDisplayName());
+                else
+                    assertNull(udn);
+            }
+            // Flushed in chunks of at most maxBatchSize
+            assertEquals(Arrays.asList(2, 2, 1), batchSizes);
+        }
+        finally {
+            coalescer.close();
+        }
+
+        // Closing cancels pending lookups and rejects new ones
+        coalescer = new LookupCoalescer(new LookupCoalescer.BatchLookup() {
+            @Override
+            public Map<String, UuidDisplayName> lookup(List<String> usernames) throws Exception {
+                throw new AssertionError("lookup should not be called");
+            }
+        }, 2, 10000L);
+        ListenableFuture<UuidDisplayName> pending = coalescer.submit("a");
+        coalescer.close();
+        assertTrue(pending.isCancelled());
+        try {
+            coalescer.submit("b").get();
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testLookupThreadsExit() throws Exception {
+        // The coalescer's thread exits once idle, even if never closed
+        int before = countThreads("LookupCoalescer-");
+        LookupCoalescer coalescer = new LookupCoalescer(new LookupCoalescer.BatchLookup() {
+            @Override
+            public Map<String, UuidDisplayName> lookup(List<String> usernames) throws Exception {
+                return Collections.emptyMap();
+            }
+        }, 10, 10L, 50L);
+        assertNull(coalescer.submit("alice").get());
+        assertEquals(before + 1, countThreads("LookupCoalescer-"));
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (countThreads("LookupCoalescer-") > before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(before, countThreads("LookupCoalescer-"));
+
+        // Without a coalesce window, asynchronous lookups don't start a coalescer
+        HttpServer server = startProfileServer(new UuidDisplayName(UUID.randomUUID(), "Alice"), new AtomicInteger(), new AtomicBoolean());
+        MojangUuidResolver resolver = new MojangUuidResolver(100, 1L, TimeUnit.HOURS, 4, 0.0, 0L,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/profiles");
+        try {
+            assertEquals("Alice", resolver.resolveAsync("alice").get().getDisplayName());
+            assertEquals(before, countThreads("LookupCoalescer-"));
+        }
+        finally {
+            resolver.close();
+            server.stop(0);
+        }
+    }
+
+    private static int countThreads(String prefix) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix))
+                count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void testPersistentUuidResolver() throws Exception {
+        File file = File.createTempFile("uuids", ".dat");
+        file.delete();
+        try {
+            UUID uuid1 = UUID.randomUUID();
+            UUID uuid2 = UUID.randomUUID();
+            PersistentUuidResolver resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            resolver.preload("Alice", uuid1);
+            resolver.preload("Bob", uuid2);
+            resolver.preloadNotFound("Ghost");
+            resolver.close();
+
+            // Survives reloading
+            resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertEquals(uuid1, resolver.resolve("alice").getUuid());
+            assertEquals("Alice", resolver.resolve("ALICE").getDisplayName());
+            assertEquals("Bob", resolver.resolveUuid(uuid2).getDisplayName());
+            assertNull(resolver.resolve("ghost"));
+            assertTrue(resolver.isNotFound("Ghost"));
+            assertFalse(resolver.isNotFound("Alice"));
+
+            // Invalidation is persisted and drops the reverse mapping
+            resolver.invalidate("bob");
+            assertNull(resolver.resolve("bob"));
+            assertNull(resolver.resolveUuid(uuid2));
+            resolver.close();
+            resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertNull(resolver.resolve("bob"));
+            assertNull(resolver.resolveUuid(uuid2));
+            assertEquals(uuid1, resolver.resolve("alice").getUuid());
+            resolver.close();
+
+            // Expired entries are dropped on load
+            Thread.sleep(10L);
+            resolver = new PersistentUuidResolver(file, 5L, TimeUnit.MILLISECONDS);
+            assertNull(resolver.resolve("alice"));
+            assertNull(resolver.resolveUuid(uuid1));
+            assertFalse(resolver.isNotFound("ghost"));
+            resolver.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPersistentUuidResolverCompaction() throws Exception {
+        File file = File.createTempFile("uuids", ".dat");
+        file.delete();
+        try {
+            PersistentUuidResolver resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            resolver.preload("Alice", UUID.randomUUID());
+            resolver.flush();
+            long singleRecordLength = file.length();
+
+            // Superseded records are eventually compacted away
+            UUID uuid = null;
+            for (int i = 0; i < 1000; i++) {
+                uuid = UUID.randomUUID();
+                resolver.preload("Alice", uuid);
+            }
+            resolver.flush();
+            assertTrue(file.length() < 2 * singleRecordLength);
+            resolver.close();
+
+            resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+            resolver.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPersistentUuidResolverTruncated() throws Exception {
+        File file = File.createTempFile("uuids", ".dat");
+        file.delete();
+        try {
+            UUID uuid1 = UUID.randomUUID();
+            UUID uuid2 = UUID.randomUUID();
+            PersistentUuidResolver resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            resolver.preload("Alice", uuid1);
+            resolver.flush();
+            long firstRecordLength = file.length();
+            resolver.preload("Bob", uuid2);
+            resolver.close();
+
+            // Simulate a crash partway through writing the last record
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(raf.length() - 3L);
+            }
+            finally {
+                raf.close();
+            }
+
+            resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertEquals(uuid1, resolver.resolve("alice").getUuid());
+            assertNull(resolver.resolve("bob"));
+            // Partial record was discarded
+            assertEquals(firstRecordLength, file.length());
+
+            // And appending continues to work
+            resolver.preload("Bob", uuid2);
+            resolver.close();
+            resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertEquals(uuid1, resolver.resolve("alice").getUuid());
+            assertEquals(uuid2, resolver.resolve("bob").getUuid());
+            resolver.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testPersistentUuidResolverUnreadable() throws Exception {
+        File file = File.createTempFile("uuids", ".dat");
+        File badFile = new File(file.getPath() + ".bad");
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            try {
+                out.writeInt(-1); // Unknown format version
+                out.writeUTF("garbage");
+            }
+            finally {
+                out.close();
+            }
+
+            UUID uuid = UUID.randomUUID();
+            PersistentUuidResolver resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertNull(resolver.resolve("alice"));
+            // Bad file is set aside
+            assertTrue(badFile.exists());
+
+            // New records are readable
+            resolver.preload("Alice", uuid);
+            resolver.close();
+            resolver = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+            resolver.close();
+        }
+        finally {
+            file.delete();
+            badFile.delete();
+        }
+    }
+
+    @Test
+    public void testCascadingNotFound() throws Exception {
+        File file = File.createTempFile("uuids", ".dat");
+        file.delete();
+        try {
+            UUID uuid = UUID.randomUUID();
+            FakeUuidResolver remote = new FakeUuidResolver(new UuidDisplayName(uuid, "Alice"));
+            PersistentUuidResolver persistent = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+            CascadingUuidResolver resolver = new CascadingUuidResolver(persistent, remote);
+
+            // Single synchronous misses are not remembered
+            assertNull(resolver.resolve("ghost"));
+            assertFalse(persistent.isNotFound("ghost"));
+
+            // Bulk misses are
+            Map<String, UuidDisplayName> result = resolver.resolve(Arrays.asList("Alice", "Ghost"));
+            assertEquals(Collections.singleton("alice"), result.keySet());
+            assertTrue(persistent.isNotFound("ghost"));
+            assertEquals(uuid, persistent.resolve("alice").getUuid());
+
+            // And are not looked up again
+            remote.lookups.clear();
+            assertNull(resolver.resolve("ghost"));
+            assertTrue(resolver.resolve(Arrays.asList("ghost")).isEmpty());
+            assertNull(resolver.resolveAsync("ghost").get());
+            assertTrue(remote.lookups.isEmpty());
+
+            // Asynchronous misses are remembered
+            assertNull(resolver.resolveAsync("phantom").get());
+            assertTrue(persistent.isNotFound("phantom"));
+            persistent.close();
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testAsyncUuidResolverAdapter() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        FakeUuidResolver fake = new FakeUuidResolver(new UuidDisplayName(uuid, "Alice"));
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            AsyncUuidResolverAdapter adapter = new AsyncUuidResolverAdapter(fake, executorService);
+
+            // Lookups happen on the executor
+            assertEquals(uuid, adapter.resolveAsync("alice").get().getUuid());
+            assertNull(adapter.resolveAsync("ghost").get());
+            Map<String, UuidDisplayName> result = adapter.resolveAsync(Arrays.asList("alice", "ghost")).get();
+            assertEquals(Collections.singleton("alice"), result.keySet());
+            assertEquals(3, fake.threads.size());
+            assertFalse(fake.threads.contains(Thread.currentThread()));
+
+            // Failures are reported through the future
+            fake.failure = new Exception("failed");
+            try {
+                adapter.resolveAsync(Arrays.asList("alice")).get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertSame(fake.failure, e.getCause());
+            }
+            fake.failure = null;
+
+            // Blocking methods are delegated on the calling thread
+            fake.threads.clear();
+            assertEquals(uuid, adapter.resolve("alice").getUuid());
+            assertEquals(Collections.singletonList(Thread.currentThread()), fake.threads);
+            adapter.preload("Bob", uuid);
+            assertEquals("Bob", fake.preloaded.get("bob").getDisplayName());
+
+            // Reverse lookups only if the delegate supports them
+            assertNull(adapter.resolveUuid(uuid));
+            File file = File.createTempFile("uuids", ".dat");
+            file.delete();
+            try {
+                PersistentUuidResolver persistent = new PersistentUuidResolver(file, 1L, TimeUnit.HOURS);
+                persistent.preload("Alice", uuid);
+                adapter = new AsyncUuidResolverAdapter(persistent, executorService);
+                assertEquals("Alice", adapter.resolveUuid(uuid).getDisplayName());
+                persistent.close();
+            }
+            finally {
+                file.delete();
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testOfflineUuid() {
+        assertEquals(UUID.fromString("b50ad385-829d-3141-a216-7e7d7539ba7f"), UuidUtils.getOfflineUuid("Notch"));
+        // Case-sensitive
+        assertFalse(UuidUtils.getOfflineUuid("notch").equals(UuidUtils.getOfflineUuid("Notch")));
+    }
+
+    @Test
+    public void testLocalUuidResolver() throws Exception {
+        File mappingFile = File.createTempFile("mappings", ".txt");
+        File userCacheFile = File.createTempFile("usercache", ".json");
+        try {
+            UUID mapped = UUID.randomUUID();
+            UUID cached = UUID.randomUUID();
+            UUID cachedOnly = UUID.randomUUID();
+            UUID preloaded = UUID.randomUUID();
+            write(mappingFile, "# comment", "", mapped + "/Alice");
+            write(userCacheFile, "[{\"name\":\"alice\",\"uuid\":\"" + cached + "\",\"expiresOn\":\"2030-01-01 00:00:00 +0000\"},",
+                    "{\"name\":\"Bob\",\"uuid\":\"" + cachedOnly + "\"},",
+                    "{\"name\":\"Broken\",\"uuid\":\"not-a-uuid\"}]");
+
+            LocalUuidResolver resolver = new LocalUuidResolver(mappingFile, userCacheFile, false);
+            // Mapping file wins over the user cache
+            assertEquals(mapped, resolver.resolve("ALICE").getUuid());
+            assertEquals("Alice", resolver.resolve("alice").getDisplayName());
+            assertEquals(cachedOnly, resolver.resolve("bob").getUuid());
+            assertEquals("Bob", resolver.resolve("bob").getDisplayName());
+            assertNull(resolver.resolve("broken"));
+            assertNull(resolver.resolve("Notch"));
+
+            // Preloaded mappings come between the two
+            resolver.preload("Alice", preloaded);
+            resolver.preload("Bob", preloaded);
+            assertEquals(mapped, resolver.resolve("alice").getUuid());
+            assertEquals(preloaded, resolver.resolve("bob").getUuid());
+            resolver.invalidate("bob");
+            assertEquals(cachedOnly, resolver.resolve("bob").getUuid());
+
+            Map<String, UuidDisplayName> result = resolver.resolve(Arrays.asList("Alice", "Notch"));
+            assertEquals(Collections.singleton("alice"), result.keySet());
+
+            // Offline mode resolves everything else
+            resolver = new LocalUuidResolver(mappingFile, null, true);
+            assertEquals(mapped, resolver.resolve("alice").getUuid());
+            assertEquals(UUID.fromString("b50ad385-829d-3141-a216-7e7d7539ba7f"), resolver.resolve("Notch").getUuid());
+
+            // Reload picks up changes
+            write(mappingFile, mapped + "/Carol");
+            resolver.reload();
+            assertEquals(mapped, resolver.resolve("carol").getUuid());
+            assertEquals(UuidUtils.getOfflineUuid("alice"), resolver.resolve("alice").getUuid());
+
+            // Malformed mapping file
+            write(mappingFile, "Alice");
+            try {
+                resolver.reload();
+                fail();
+            }
+            catch (IOException e) {
+                // Expected
+            }
+        }
+        finally {
+            mappingFile.delete();
+            userCacheFile.delete();
+        }
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(3, TimeUnit.HOURS.toMillis(1L));
+        // Closed until enough consecutive failures
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        // Open: requests refused until the cooldown passes
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+
+        breaker = new CircuitBreaker(1, 0L);
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        // Half-open: a single probe is let through
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        // Failed probe re-opens
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        // Successful probe closes
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testLatencyTracker() {
+        LatencyTracker tracker = new LatencyTracker(10, 100L, 1000L);
+        // Maximum until there are enough samples
+        assertEquals(1000L, tracker.getTimeout());
+        for (int i = 0; i < 9; i++) {
+            tracker.record(50L);
+        }
+        assertEquals(1000L, tracker.getTimeout());
+        tracker.record(50L);
+        assertEquals(200L, tracker.getTimeout());
+
+        // Based on the 95th percentile of the window
+        tracker.record(150L);
+        assertEquals(600L, tracker.getTimeout());
+
+        // Within bounds
+        for (int i = 0; i < 10; i++) {
+            tracker.record(10L);
+        }
+        assertEquals(100L, tracker.getTimeout());
+        for (int i = 0; i < 10; i++) {
+            tracker.record(5000L);
+        }
+        assertEquals(1000L, tracker.getTimeout());
+    }
+
+    @Test
+    public void testUuidCacheWarmer() throws Exception {
+        final List<Object> registered = new ArrayList<>();
+        final List<Runnable> asyncTasks = new ArrayList<>();
+        final AtomicInteger enumerations = new AtomicInteger();
+        final long now = System.currentTimeMillis();
+        final OfflinePlayer[] offlinePlayers = new OfflinePlayer[] {
+                createPlayer(OfflinePlayer.class, "Alice", UUID.randomUUID(), now - TimeUnit.DAYS.toMillis(1L)),
+                createPlayer(OfflinePlayer.class, "Bob", UUID.randomUUID(), now - TimeUnit.DAYS.toMillis(2L)),
+                createPlayer(OfflinePlayer.class, "Carol", UUID.randomUUID(), now - TimeUnit.DAYS.toMillis(60L)),
+                createPlayer(OfflinePlayer.class, null, UUID.randomUUID(), now) };
+        final BukkitScheduler scheduler = proxy(BukkitScheduler.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("runTaskAsynchronously".equals(method.getName())) {
+                    asyncTasks.add((Runnable)args[1]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final PluginManager pluginManager = proxy(PluginManager.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("registerEvents".equals(method.getName())) {
+                    registered.add(args[0]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        final Server server = proxy(Server.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "getScheduler":
+                    return scheduler;
+                case "getPluginManager":
+                    return pluginManager;
+                case "getOfflinePlayers":
+                    enumerations.incrementAndGet();
+                    return offlinePlayers;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+        Plugin plugin = proxy(Plugin.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getServer".equals(method.getName()))
+                    return server;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        FakeUuidResolver fake = new FakeUuidResolver();
+        UuidCacheWarmer warmer = new UuidCacheWarmer(plugin, fake);
+        assertEquals(Collections.singletonList(warmer), registered);
+
+        // Pre-login is already off the main thread
+        UUID uuid = UUID.randomUUID();
+        warmer.onAsyncPlayerPreLogin(new AsyncPlayerPreLoginEvent("Dave", null, uuid));
+        assertEquals(uuid, fake.preloaded.get("dave").getUuid());
+        AsyncPlayerPreLoginEvent event = new AsyncPlayerPreLoginEvent("Eve", null, uuid);
+        event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_BANNED, "Banned");
+        warmer.onAsyncPlayerPreLogin(event);
+        assertFalse(fake.preloaded.containsKey("eve"));
+
+        // Join preloads in the background
+        fake.preloaded.clear();
+        uuid = UUID.randomUUID();
+        warmer.onPlayerJoin(new PlayerJoinEvent(createPlayer(Player.class, "Frank", uuid, now), null));
+        assertTrue(fake.preloaded.isEmpty());
+        assertEquals(1, asyncTasks.size());
+        asyncTasks.remove(0).run();
+        assertEquals(uuid, fake.preloaded.get("frank").getUuid());
+
+        // Only recent offline players with names, enumerated in the background
+        fake.preloaded.clear();
+        warmer.preloadOfflinePlayers(30L, TimeUnit.DAYS);
+        assertTrue(fake.preloaded.isEmpty());
+        assertEquals(0, enumerations.get());
+        assertEquals(1, asyncTasks.size());
+        asyncTasks.remove(0).run();
+        assertEquals(1, enumerations.get());
+        assertEquals(new HashSet<>(Arrays.asList("alice", "bob")), fake.preloaded.keySet());
+        assertEquals(offlinePlayers[0].getUniqueId(), fake.preloaded.get("alice").getUuid());
+    }
+
+    private static <T extends OfflinePlayer> T createPlayer(Class<T> clazz, final String name, final UUID uuid, final long lastPlayed) {
+        return proxy(clazz, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getUniqueId":
+                    return uuid;
+                case "getLastPlayed":
+                    return lastPlayed;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> clazz, InvocationHandler handler) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, handler));
+    }
+
+    @Test
+    public void testMojangUuidResolverRefresh() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        AtomicInteger requests = new AtomicInteger();
+        AtomicBoolean failing = new AtomicBoolean();
+        HttpServer server = startProfileServer(new UuidDisplayName(uuid, "Alice"), requests, failing);
+        MojangUuidResolver resolver = new MojangUuidResolver(100, 1500L, 300L, TimeUnit.MILLISECONDS, 1, 0.0, 0L,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/profiles");
+        try {
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+            assertNull(resolver.resolve("ghost"));
+            assertEquals(2, requests.get());
+            long loaded = System.currentTimeMillis();
+
+            // Cached
+            assertEquals(uuid, resolver.resolve("Alice").getUuid());
+            assertNull(resolver.resolve("ghost"));
+            assertEquals(2, requests.get());
+
+            // Past its own TTL, the negative entry is refreshed in the
+            // background. The positive entry is still fresh.
+            sleepUntil(loaded + 300L);
+            assertNull(resolver.resolve("ghost"));
+            awaitRequests(requests, 3);
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+            Thread.sleep(50L);
+            assertEquals(3, requests.get());
+
+            // Stale entries are served while refreshes fail...
+            failing.set(true);
+            sleepUntil(loaded + 1500L);
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+            awaitRequests(requests, 4);
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+
+            // ...until they are twice their TTL old
+            sleepUntil(loaded + 3000L);
+            assertNull(resolver.resolve("alice"));
+            assertNull(resolver.resolve("alice", true));
+        }
+        finally {
+            resolver.close();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testMojangUuidResolverStats() throws Exception {
+        UUID uuid = UUID.randomUUID();
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = startProfileServer(new UuidDisplayName(uuid, "Alice"), requests, new AtomicBoolean());
+        // Coalesce asynchronous lookups into a single request
+        MojangUuidResolver resolver = new MojangUuidResolver(100, 1L, 1L, TimeUnit.HOURS, 1, 0.0, 100L,
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/profiles");
+        try {
+            assertEquals(uuid, resolver.resolve("alice").getUuid());
+            assertEquals(uuid, resolver.resolve("Alice").getUuid());
+            assertStats(resolver, 1, 1, 1);
+
+            // Bulk lookups count each username, and each request
+            Map<String, UuidDisplayName> result = resolver.resolve(Arrays.asList("alice", "bob", "carol"));
+            assertEquals(Collections.singleton("alice"), result.keySet());
+            assertStats(resolver, 2, 3, 2);
+            assertNull(resolver.resolve("bob"));
+            assertStats(resolver, 3, 3, 2);
+
+            result = resolver.resolveAsync(Arrays.asList("alice", "dave", "erin")).get();
+            assertEquals(Collections.singleton("alice"), result.keySet());
+            assertStats(resolver, 4, 5, 3);
+            assertNull(resolver.resolve("dave", true));
+            assertStats(resolver, 5, 5, 3);
+
+            assertEquals(3, requests.get());
+            assertEquals(0.5, resolver.getCacheStats().hitRate(), 0.0);
+        }
+        finally {
+            resolver.close();
+            server.stop(0);
+        }
+    }
+
+    private static void assertStats(MojangUuidResolver resolver, long hits, long misses, long loads) {
+        CacheStats stats = resolver.getCacheStats();
+        assertEquals(hits, stats.hitCount());
+        assertEquals(misses, stats.missCount());
+        assertEquals(loads, stats.loadSuccessCount());
+        assertEquals(0L, stats.loadExceptionCount());
+    }
+
+    // Start a local stand-in for Mojang's profile search that knows a single
+    // profile
+    private static HttpServer startProfileServer(final UuidDisplayName profile, final AtomicInteger requests, final AtomicBoolean failing) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/profiles", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                JSONArray profiles = new JSONArray();
+                try {
+                    for (Object name : (JSONArray)new JSONParser().parse(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+                        if (profile.getDisplayName().equalsIgnoreCase((String)name)) {
+                            JSONObject jsonProfile = new JSONObject();
+                            jsonProfile.put("id", profile.getUuid().toString().replace("-", ""));
+                            jsonProfile.put("name", profile.getDisplayName());
+                            profiles.add(jsonProfile);
+                        }
+                    }
+                }
+                catch (ParseException e) {
+                    throw new IOException(e);
+                }
+                byte[] body = profiles.toJSONString().getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(failing.get() ? 500 : 200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long delay = time - System.currentTimeMillis();
+        if (delay > 0L)
+            Thread.sleep(delay);
+    }
+
+    private static void awaitRequests(AtomicInteger requests, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (requests.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(count, requests.get());
+    }
+
+    private static void write(File file, String... lines) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        try {
+            for (String line : lines) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // UuidResolver that knows a fixed set of mappings and records its use
+    private static class FakeUuidResolver implements UuidResolver {
+
+        private final Map<String, UuidDisplayName> known = new HashMap<>();
+
+        private final List<String> lookups = Collections.synchronizedList(new ArrayList<String>());
+
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        private final Map<String, UuidDisplayName> preloaded = new HashMap<>();
+
+        private volatile Exception failure;
+
+        private FakeUuidResolver(UuidDisplayName... udns) {
+            for (UuidDisplayName udn : udns) {
+                known.put(udn.getDisplayName().toLowerCase(), udn);
+            }
+        }
+
+        @Override
+        public UuidDisplayName resolve(String username) {
+            return resolve(username, false);
+        }
+
+        @Override
+        public UuidDisplayName resolve(String username, boolean cacheOnly) {
+            lookups.add(username);
+            threads.add(Thread.currentThread());
+            return known.get(username.toLowerCase());
+        }
+
+        @Override
+        public Map<String, UuidDisplayName> resolve(Collection<String> usernames) throws Exception {
+            threads.add(Thread.currentThread());
+            if (failure != null)
+                throw failure;
+            Map<String, UuidDisplayName> result = new HashMap<>();
+            for (String username : usernames) {
+                lookups.add(username);
+                UuidDisplayName udn = known.get(username.toLowerCase());
+                if (udn != null)
+                    result.put(username.toLowerCase(), udn);
+            }
+            return result;
+        }
+
+        @Override
+        public void preload(String username, UUID uuid) {
+            preloaded.put(username.toLowerCase(), new UuidDisplayName(uuid, username));
+        }
+
+        @Override
+        public void invalidate(String username) {
+            preloaded.remove(username.toLowerCase());
+        }
+
+        @Override
+        public void invalidateAll() {
+            preloaded.clear();
+        }
+
+    }
+
 }